@@ -0,0 +1,34 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs every benchmark with the GC profiler, which adds allocation rate (gc.alloc.rate.norm is bytes per
+ * operation), and saves the results as results/[label].json. Comparing those files between versions (for example
+ * with jmh.morethan.pro or any JSON diff) shows throughput and allocation regressions.
+ *
+ * Usage: BenchmarkRunner [label] [regex of benchmarks to run]
+ */
+public class BenchmarkRunner {
+    public static void main(String... args) throws RunnerException {
+        String label = args.length > 0 ? args[0] : "current";
+        String include = args.length > 1 ? args[1] : "benchmarks\\..*Benchmark.*";
+
+        new File("results").mkdirs();
+        Options options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("results/" + label + ".json")
+                .build();
+
+        new Runner(options).run();
+    }
+}
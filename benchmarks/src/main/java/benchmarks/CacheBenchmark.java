@@ -0,0 +1,65 @@
+package benchmarks;
+
+import model.Cache;
+import model.RandomStream;
+import model.ReplacementPolicy;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache.locate and Cache.add on a 2048-block cache, across associativities and replacement policies.
+ * Addresses are spread over twice the cache's capacity, so roughly half of the lookups miss.
+ * Scores are lookups per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+    private static final int BLOCKS = 2048;
+    private static final int BLOCK_SIZE = 16;
+    private static final int ADDRESSES = 4096;
+
+    @Param({"1", "4", "16", "64"})
+    public int associativity;
+
+    @Param({"LRU", "PLRU", "SRRIP", "RANDOM"})
+    public String replacement;
+
+    private Cache cache;
+    private long addresses[];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cache = new Cache(BLOCKS, BLOCK_SIZE, associativity, 1, ReplacementPolicy.Type.parse(replacement), null);
+
+        RandomStream random = new RandomStream(42);
+        addresses = new long[ADDRESSES];
+        for(int i = 0; i < ADDRESSES; i++) {
+            addresses[i] = (long)random.nextInt(2 * BLOCKS) * BLOCK_SIZE;
+        }
+        for(long address : addresses) {
+            cache.add(address);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ADDRESSES)
+    public void locate(Blackhole blackhole) {
+        for(long address : addresses) {
+            blackhole.consume(cache.locate(address));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ADDRESSES)
+    public void add(Blackhole blackhole) {
+        for(long address : addresses) {
+            blackhole.consume(cache.add(address));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package benchmarks;
+
+import model.ReplacementPolicy;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Simulator configurations used by the benchmarks. The defaults match the bundled config.csv, so benchmark
+ * numbers don't change when someone edits the file for an experiment.
+ */
+final class Configs {
+    private Configs() {
+    }
+
+    static Map<String, Integer> defaults() {
+        Map<String, Integer> config = new HashMap<>();
+        config.put("l1_blocks", 32);
+        config.put("l1_latency", 1);
+        config.put("l2_blocks", 512);
+        config.put("l2_latency", 10);
+        config.put("l3_blocks", 2048);
+        config.put("l3_latency", 35);
+        config.put("lm1_size", 16384);
+        config.put("lm1_readLatency", 100);
+        config.put("lm1_writeLatency", 100);
+        config.put("lm2_size", 1073741824);
+        config.put("lm2_readLatency", 250);
+        config.put("lm2_writeLatency", 400);
+        config.put("block_size", 16);
+        config.put("associativity", 32);
+        config.put("cpu_count", 2);
+        config.put("threads", 1);
+        config.put("seed", 1);
+        config.put("snoop_filter_entries", 2048);
+        config.put("snoop_filter_associativity", 16);
+        config.put("l1_replacement", ReplacementPolicy.Type.LRU.ordinal());
+        config.put("l2_replacement", ReplacementPolicy.Type.LRU.ordinal());
+        config.put("l3_replacement", ReplacementPolicy.Type.LRU.ordinal());
+        config.put("writeScheme", 1);
+        return config;
+    }
+}
@@ -0,0 +1,59 @@
+package benchmarks;
+
+import model.CPU;
+import model.Instruction;
+import model.RandomStream;
+import model.SystemBus;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU.execute on streams that mostly hit in L1 and on streams that mostly miss all the way to memory.
+ * Scores are simulated instructions per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CpuBenchmark {
+    private static final int INSTRUCTIONS = 4096;
+
+    /**
+     * "hit" touches 16 instruction and 16 data blocks, which fit in L1. "miss" reads and writes random blocks
+     * spread over 64 MB, far more than the L3 holds.
+     */
+    @Param({"hit", "miss"})
+    public String stream;
+
+    private CPU cpu;
+    private Instruction instructions[];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        cpu = new SystemBus(Configs.defaults()).getCPU(1);
+
+        RandomStream random = new RandomStream(42);
+        boolean hits = stream.equals("hit");
+        instructions = new Instruction[INSTRUCTIONS];
+        for(int i = 0; i < INSTRUCTIONS; i++) {
+            Instruction instruction = new Instruction();
+            instruction.instruction = hits ? (i % 64) * 4 : (long)random.nextInt(1 << 26) & ~3L;
+            instruction.memoryAction = random.nextInt(3) == 0 ? Instruction.MemoryAction.WRITE
+                    : Instruction.MemoryAction.READ;
+            instruction.data = hits ? 0x10000 + random.nextInt(16) * 16 : random.nextInt(1 << 26);
+            instructions[i] = instruction;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public void execute(Blackhole blackhole) {
+        for(Instruction instruction : instructions) {
+            blackhole.consume(cpu.execute(instruction));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package benchmarks;
+
+import model.SystemBus;
+import model.TraceSource;
+import org.openjdk.jmh.annotations.*;
+import trace.CsvTraceReader;
+import trace.DecodedTrace;
+import trace.SyntheticTrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full replays through SystemBus with the default two-CPU configuration, including building the system.
+ * The instructions counter reports simulated instructions per second over all CPUs. Synthetic traces are generated
+ * by SyntheticTrace, like the CLI's "synthetic:model:records" traces.
+ *
+ * The bundled traces are found relative to the simulator.home system property, which defaults to the parent
+ * directory (the repository root when run from benchmarks/).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplayBenchmark {
+    private static final int LAG = 50;
+
+    @Param({"synthetic:random:20000", "synthetic:zipf:20000", "trace-2k.csv", "trace-5k.csv"})
+    public String trace;
+
+    private DecodedTrace decoded;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long instructions;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if(trace.startsWith(SyntheticTrace.PREFIX)) {
+            try(TraceSource source = SyntheticTrace.open(trace, Configs.defaults())) {
+                decoded = DecodedTrace.load(source);
+            }
+        } else {
+            File file = new File(System.getProperty("simulator.home", ".."), trace);
+            try(TraceSource source = new CsvTraceReader(file)) {
+                decoded = DecodedTrace.load(source);
+            }
+        }
+    }
+
+    @Benchmark
+    public SystemBus replay(Counters counters) throws IOException {
+        SystemBus bus = new SystemBus(Configs.defaults());
+        bus.replay(decoded.cursor(), LAG);
+        counters.instructions += (long)decoded.size() * bus.getCpuCount();
+        return bus;
+    }
+}
@@ -1,76 +1,174 @@
 import com.opencsv.CSVReader;
-import model.Instruction;
+import model.CacheLine;
+import model.CoherenceProtocol;
+import model.Inclusion;
+import model.IntervalExporter;
+import model.LatencyRecorder;
+import model.ParallelEngine;
+import model.Prefetcher;
+import model.Profiler;
+import model.ReplacementPolicy;
+import model.Sampler;
 import model.SystemBus;
+import model.TraceSource;
+import trace.CsvTraceReader;
+import trace.MappedTraceReader;
+import trace.SyntheticTrace;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 /**
  * Entry point for the simulator
+ * Usage: Main [trace] [config.csv] [output.txt] [intervals.csv] [checkpoint]
+ * The trace is a file, or a generated workload such as "synthetic:zipf:1000000000" (see SyntheticTrace).
+ * With profile enabled, a flame graph of the misses is also written to output.folded (see Profiler).
+ * With sample_period set, only samples of the trace are simulated in detail (see Sampler).
+ * With interval_instructions or interval_time set, the statistics of every interval are written to intervals.csv,
+ * by default output.intervals.csv, or as JSON Lines if its name ends in .jsonl (see IntervalExporter).
+ * With checkpoint_interval set, the whole state of the system is saved to the checkpoint file, by default
+ * output.checkpoint, every checkpoint_interval rounds; with checkpoint_exit set the run stops after the first one.
+ * With resume set, a run starts from the checkpoint file if there is one (see SystemBus.saveCheckpoint).
  *
  * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
  * @version 1.0
  */
 public class Main {
+    /**
+     * How many instructions each CPU trails behind the one before it when replaying a trace.
+     */
+    public static final int LAG = 50;
+
     private static PrintStream output;
 
     private static SystemBus bus;
 
     public static void main(String... args) {
         Map<String, Integer> config;
-        List<Instruction> instructions;
 
         try {
-            output = new PrintStream(new File("output.txt"));
-            config = readConfig(new File("config.csv"));
-            instructions = readTrace(new File("trace-5k.csv"));
+            String outputName = args.length > 2 ? args[2] : "output.txt";
+            output = new PrintStream(new File(outputName));
+            config = readConfig(new File(args.length > 1 ? args[1] : "config.csv"));
             bus = new SystemBus(config);
 
-            for(int i = 0; i < 50 && i < instructions.size(); i++) {
-                bus.execute(instructions.get(i), 1);
+            Path checkpoint = Paths.get(args.length > 4 ? args[4] : checkpointName(outputName));
+            if(config.getOrDefault("checkpoint_interval", 0) > 0) {
+                bus.setCheckpoints(checkpoint, config.get("checkpoint_interval"),
+                        config.getOrDefault("checkpoint_exit", 0) != 0);
             }
-            for(int i = 50; i < instructions.size(); i++) {
-                bus.execute(instructions.get(i), 1);
-                bus.execute(instructions.get(i - 50), 2);
+
+            Sampler sampler;
+            File intervalFile = new File(args.length > 3 ? args[3] : intervalsName(outputName));
+            try(TraceSource trace = openTrace(args.length > 0 ? args[0] : "trace-5k.csv", config);
+                    IntervalExporter intervals = IntervalExporter.isEnabled(config)
+                            ? new IntervalExporter(config, bus, intervalFile) : null) {
+                // The exporter is restored along with the system, so its intervals carry on from the checkpoint.
+                bus.setIntervals(intervals);
+                if(config.getOrDefault("resume", 0) != 0 && Files.exists(checkpoint)) {
+                    bus.restoreCheckpoint(checkpoint);
+                }
+                sampler = simulate(bus, trace, config);
             }
-            for(int i = instructions.size() - 50; i < instructions.size(); i++) {
-                bus.execute(instructions.get(i), 2);
+
+            if(sampler != null) {
+                outputStatistics(sampler.getStatistics(), sampler.getStateChanges(), bus.getProtocol().getStates());
+                sampler.report(output);
+            } else {
+                outputStatistics(bus.gatherStatistics(), bus.getStateChanges(), bus.getProtocol().getStates());
             }
 
-            outputStatistics(bus.gatherStatistics(), bus.getStateChanges());
+            if(config.getOrDefault("latency_histograms", 0) != 0) {
+                LatencyRecorder.report(output, bus);
+            }
+
+            if(config.getOrDefault("profile", 0) != 0) {
+                Profiler.report(output, bus, config.getOrDefault("profile_top", 20));
+                try(PrintStream folded = new PrintStream(new File(foldedName(outputName)))) {
+                    Profiler.writeFolded(folded, bus);
+                }
+            }
 
         } catch (IOException e) {
-            output.println("Error reading input files.");
+            output.println("Error reading input files: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            output.println("Invalid configuration: " + e.getMessage());
         }
     }
 
-    public static List<Instruction> readTrace(File file) throws IOException {
-        CSVReader reader = new CSVReader(new FileReader(file));
-        List<Instruction> list = new ArrayList<>();
+    /**
+     * @return The name of the flame graph file written next to an output file: the output's name with its
+     * extension replaced by ".folded".
+     */
+    static String foldedName(String outputName) {
+        return baseName(outputName) + ".folded";
+    }
 
-        String line[];
-        while((line = reader.readNext()) != null) {
-            Instruction instruction = new Instruction();
-            instruction.instruction = Long.parseLong(line[0]/*, 16*/);
-            if(line.length == 1) {
-                list.add(instruction);
-                continue;
-            }
+    /**
+     * @return The name of the interval statistics file written next to an output file by default: the output's
+     * name with its extension replaced by ".intervals.csv".
+     */
+    static String intervalsName(String outputName) {
+        return baseName(outputName) + ".intervals.csv";
+    }
 
-            if((line[1]).equals("0")) {
-                instruction.memoryAction = Instruction.MemoryAction.READ;
-            } else if(line[1].equals("1")) {
-                instruction.memoryAction = Instruction.MemoryAction.WRITE;
-            }
-            if(!line[2].equals("")) {
-                instruction.data = Long.parseLong(line[2]/*, 16*/);
-            }
+    /**
+     * @return The name of the checkpoint file written next to an output file by default: the output's name with its
+     * extension replaced by ".checkpoint".
+     */
+    static String checkpointName(String outputName) {
+        return baseName(outputName) + ".checkpoint";
+    }
+
+    private static String baseName(String outputName) {
+        int dot = outputName.lastIndexOf('.');
+        int slash = Math.max(outputName.lastIndexOf('/'), outputName.lastIndexOf(File.separatorChar));
+        return dot > slash ? outputName.substring(0, dot) : outputName;
+    }
 
-            list.add(instruction);
+    /**
+     * Replays a trace through the system. Each CPU replays the trace LAG instructions behind the one before it.
+     * If the configuration asks for more than one thread, the CPUs' private cache work runs in parallel. If it asks
+     * for sampling, the trace is sampled on one thread instead.
+     *
+     * @return The sampler holding the sampled statistics, or null if every instruction was simulated in detail.
+     */
+    public static Sampler simulate(SystemBus bus, TraceSource trace, Map<String, Integer> config) throws IOException {
+        int threads = config.getOrDefault("threads", 1);
+        if(Sampler.isEnabled(config)) {
+            Sampler sampler = new Sampler(config, bus);
+            bus.replay(trace, LAG, sampler);
+            return sampler;
+        } else if(threads > 1) {
+            new ParallelEngine(bus, threads).replay(trace, LAG);
+        } else {
+            bus.replay(trace, LAG);
         }
+        return null;
+    }
 
-        reader.close();
-        return list;
+    /**
+     * Opens a trace by name. Names starting with "synthetic:" are generated, anything else is read from a file.
+     */
+    public static TraceSource openTrace(String name, Map<String, Integer> config) throws IOException {
+        if(name.startsWith(SyntheticTrace.PREFIX)) {
+            return SyntheticTrace.open(name, config);
+        }
+        return openTrace(new File(name), config);
+    }
+
+    /**
+     * Opens a trace file. Files ending in .bin are replayed from the binary trace format, anything else is
+     * parsed as CSV.
+     */
+    public static TraceSource openTrace(File file, Map<String, Integer> config) throws IOException {
+        if(file.getName().endsWith(".bin")) {
+            return new MappedTraceReader(file, config.get("block_size"), config.getOrDefault("cpu_count", 2));
+        }
+        return new CsvTraceReader(file);
     }
 
     public static Map<String, Integer> readConfig(File file) throws IOException {
@@ -79,71 +177,98 @@ public class Main {
 
         String line[];
         while((line = reader.readNext()) != null) {
-            if(line[0].equals("writeScheme")) {
-                if(line[1].equals("Write Back")) {
-                    config.put(line[0], 0);
-                } else {
-                    config.put(line[0], 1);
-                }
-            } else {
-                config.put(line[0], Integer.parseInt(line[1]));
-            }
+            config.put(line[0], parseConfigValue(line[0], line[1]));
         }
 
         reader.close();
         return config;
     }
 
-    public static void outputStatistics(Map<String, Integer> stats, int stateChanges[][]) {
+    /**
+     * Converts a value from the configuration file into the number the simulator uses for it.
+     *
+     * @throws IllegalArgumentException If the value isn't valid for the key.
+     */
+    public static int parseConfigValue(String key, String value) {
+        if(key.equals("writeScheme")) {
+            return value.equals("Write Back") ? 0 : 1;
+        } else if(key.equals("coherence_protocol")) {
+            return CoherenceProtocol.Type.parse(value).ordinal();
+        } else if(key.endsWith("_replacement")) {
+            return ReplacementPolicy.Type.parse(value).ordinal();
+        } else if(key.endsWith("_prefetcher")) {
+            return Prefetcher.Type.parse(value).ordinal();
+        } else if(key.endsWith("_inclusion")) {
+            return Inclusion.parse(value).ordinal();
+        } else {
+            return Integer.parseInt(value.trim());
+        }
+    }
+
+    /**
+     * Prints the statistics, then the state change matrix.
+     *
+     * @param states The coherence protocol's states, in the order of the matrix's rows and columns.
+     */
+    public static void outputStatistics(Map<String, Long> stats, long stateChanges[][], CacheLine.State states[]) {
         for(String s : stats.keySet()) {
             output.println(s + ": " + stats.get(s));
         }
 
         output.println();
-        float avgInstr = (float)(stats.get("Running Time") / stats.get("CPU #1 Instruction Count"));
+        double avgInstr = (double)stats.get("Running Time") / stats.get("CPU #1 Instruction Count");
         output.println("Average time per instruction: " + avgInstr + " ns");
         output.println("Total time: " + stats.get("Running Time") + " ns");
+        if(stats.containsKey("Simulated Time")) {
+            // With the timing model, the CPUs run concurrently and misses overlap.
+            output.println("Simulated time: " + stats.get("Simulated Time") + " ns");
+        }
         output.println();
 
-        output.println("CPU 1:");
-        float cpu1L1H = (float)(stats.get("CPU #1 L1i Hits") + stats.get("CPU #1 L1d Hits"))
-                / (stats.get("CPU #1 L1i Accesses") + stats.get("CPU #1 L1d Accesses"));
-        float cpu1L1M = (float)(stats.get("CPU #1 L1i Misses") + stats.get("CPU #1 L1d Misses"))
-                / (stats.get("CPU #1 L1i Accesses") + stats.get("CPU #1 L1d Accesses"));
-        float cpu1L2H = (float)stats.get("CPU #1 L2 Hits") / stats.get("CPU #1 L2 Accesses");
-        float cpu1L2M = (float)stats.get("CPU #1 L2 Misses") / stats.get("CPU #1 L2 Accesses");
-        output.println("L1: " + cpu1L1H*100 + "% hit rate, " + cpu1L1M*100 + "% miss rate");
-        output.println("L2: " + cpu1L2H*100 + "% hit rate, " + cpu1L2M*100 + "% miss rate");
-        output.println();
-
-        output.println("CPU 2:");
-        float cpu2L1H = (float)(stats.get("CPU #2 L1i Hits") + stats.get("CPU #2 L1d Hits"))
-                / (stats.get("CPU #2 L1i Accesses") + stats.get("CPU #2 L1d Accesses"));
-        float cpu2L1M = (float)(stats.get("CPU #2 L1i Misses") + stats.get("CPU #2 L1d Misses"))
-                / (stats.get("CPU #2 L1i Accesses") + stats.get("CPU #2 L1d Accesses"));
-        float cpu2L2H = (float)stats.get("CPU #2 L2 Hits") / stats.get("CPU #2 L2 Accesses");
-        float cpu2L2M = (float)stats.get("CPU #2 L2 Misses") / stats.get("CPU #2 L2 Accesses");
-        output.println("L1: " + cpu2L1H*100 + "% hit rate, " + cpu2L1M*100 + "% miss rate");
-        output.println("L2: " + cpu2L2H*100 + "% hit rate, " + cpu2L2M*100 + "% miss rate");
-        output.println();
+        for(int cpu = 1; cpu <= stats.get("CPU Count"); cpu++) {
+            String name = "CPU #" + cpu;
+            output.println("CPU " + cpu + ":");
+            float l1H = (float)(stats.get(name + " L1i Hits") + stats.get(name + " L1d Hits"))
+                    / (stats.get(name + " L1i Accesses") + stats.get(name + " L1d Accesses"));
+            float l1M = (float)(stats.get(name + " L1i Misses") + stats.get(name + " L1d Misses"))
+                    / (stats.get(name + " L1i Accesses") + stats.get(name + " L1d Accesses"));
+            float l2H = (float)stats.get(name + " L2 Hits") / stats.get(name + " L2 Accesses");
+            float l2M = (float)stats.get(name + " L2 Misses") / stats.get(name + " L2 Accesses");
+            output.println("L1: " + l1H*100 + "% hit rate, " + l1M*100 + "% miss rate");
+            output.println("L2: " + l2H*100 + "% hit rate, " + l2M*100 + "% miss rate");
+            if(stats.containsKey(name + " Simulated Time")) {
+                double time = stats.get(name + " Simulated Time");
+                output.println("Time per instruction: " + time / stats.get(name + " Instruction Count") + " ns");
+                output.println("Misses in flight: " + stats.get(name + " Miss Time") / time + " on average");
+            }
+            output.println();
+        }
 
         float l3H = (float)stats.get("L3 Hits") / stats.get("L3 Accesses");
         float l3M = (float)stats.get("L3 Misses") / stats.get("L3 Accesses");
         output.println("L3: " + l3H*100 + "% hit rate, " + l3M*100 + "% miss rate");
+        if(stats.containsKey("L3 Slice #1 Accesses")) {
+            // How evenly the slice hash spreads the accesses: the busiest and idlest slices against the mean.
+            int slices = 0;
+            long most = Long.MIN_VALUE;
+            long least = Long.MAX_VALUE;
+            for(Long accesses; (accesses = stats.get("L3 Slice #" + (slices + 1) + " Accesses")) != null; slices++) {
+                most = Math.max(most, accesses);
+                least = Math.min(least, accesses);
+            }
+            float mean = (float)stats.get("L3 Accesses") / slices;
+            output.println("L3 slices: busiest at " + most / mean * 100 + "%, idlest at " + least / mean * 100
+                    + "% of the mean accesses");
+        }
 
         output.println();
         output.println("State changes:");
-        output.println("Modified to Exclusive: " + stateChanges[0][1]);
-        output.println("Modified to Shared: " + stateChanges[0][2]);
-        output.println("Modified to Invalid: " + stateChanges[0][3]);
-        output.println("Exclusive to Modified: " + stateChanges[1][0]);
-        output.println("Exclusive to Shared: " + stateChanges[1][2]);
-        output.println("Exclusive to Invalid: " + stateChanges[1][3]);
-        output.println("Shared to Modified: " + stateChanges[2][0]);
-        output.println("Shared to Exclusive: " + stateChanges[2][1]);
-        output.println("Shared to Invalid: " + stateChanges[2][3]);
-        output.println("Invalid to Modified: " + stateChanges[3][0]);
-        output.println("Invalid to Exclusive: " + stateChanges[3][1]);
-        output.println("Invalid to Shared: " + stateChanges[3][2]);
+        for(int from = 0; from < states.length; from++) {
+            for(int to = 0; to < states.length; to++) {
+                if(from != to) {
+                    output.println(states[from] + " to " + states[to] + ": " + stateChanges[from][to]);
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,103 @@
+import model.Instruction;
+import model.StackDistanceAnalyzer;
+import model.TraceSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Map;
+
+/**
+ * Computes LRU miss-ratio curves for every cache size in one pass over a trace, instead of simulating each size.
+ * Usage: MissCurve results.csv [config.csv] [trace]
+ *
+ * The instruction fetches, the data accesses and both together are analyzed as separate streams, at block_size
+ * granularity (see StackDistanceAnalyzer). Each stream gets a row for every power of two number of blocks up to
+ * the stream's footprint as a fully associative cache, and a row for every power of two number of sets up to
+ * stack_max_blocks / stack_ways and every power of two associativity up to stack_ways (the configured
+ * associativity by default) as a set-associative cache.
+ *
+ * The curves are those of a single CPU running the trace alone: they leave out coherence and prefetching, and a
+ * level below L1 sees every access rather than only L1's misses.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class MissCurve {
+    private static final String STREAMS[] = {"Instruction", "Data", "Unified"};
+
+    public static void main(String... args) {
+        if(args.length < 1) {
+            System.err.println("Usage: MissCurve results.csv [config.csv] [trace]");
+            System.exit(1);
+        }
+
+        try {
+            Map<String, Integer> config = Main.readConfig(new File(args.length > 1 ? args[1] : "config.csv"));
+            int blockSize = config.get("block_size");
+            int ways = config.getOrDefault("stack_ways", config.get("associativity"));
+            int maxBlocks = config.getOrDefault("stack_max_blocks", 4 * config.get("l3_blocks"));
+            if(ways < 1 || maxBlocks < ways) {
+                throw new IllegalArgumentException("stack_ways must be at least 1 and at most stack_max_blocks.");
+            }
+            int maxSets = Integer.highestOneBit(maxBlocks / ways);
+
+            StackDistanceAnalyzer analyzers[] = new StackDistanceAnalyzer[STREAMS.length];
+            for(int i = 0; i < analyzers.length; i++) {
+                analyzers[i] = new StackDistanceAnalyzer(blockSize, maxSets, ways);
+            }
+
+            try(TraceSource source = Main.openTrace(args.length > 2 ? args[2] : "trace-5k.csv", config)) {
+                Instruction instruction = new Instruction();
+                while(source.next(instruction)) {
+                    analyzers[0].access(instruction.instruction);
+                    analyzers[2].access(instruction.instruction);
+                    if(instruction.memoryAction != null) {
+                        analyzers[1].access(instruction.data);
+                        analyzers[2].access(instruction.data);
+                    }
+                }
+            }
+
+            try(PrintStream output = new PrintStream(new File(args[0]))) {
+                output.println("Stream,Sets,Ways,Blocks,Bytes,Accesses,Misses,Miss Ratio");
+                for(int i = 0; i < analyzers.length; i++) {
+                    writeCurve(output, STREAMS[i], analyzers[i], blockSize, maxSets, ways);
+                }
+            }
+
+            StackDistanceAnalyzer unified = analyzers[2];
+            System.out.println("Analyzed " + unified.getAccesses() + " accesses to " + unified.getDistinctBlocks()
+                    + " distinct blocks.");
+        } catch(IOException e) {
+            System.err.println("Error reading input files: " + e.getMessage());
+            System.exit(1);
+        } catch(IllegalArgumentException e) {
+            System.err.println("Invalid configuration: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void writeCurve(PrintStream output, String stream, StackDistanceAnalyzer analyzer, int blockSize,
+                                   int maxSets, int maxWays) {
+        // Fully associative, until every block fits.
+        for(long blocks = 1; ; blocks *= 2) {
+            row(output, stream, 1, blocks, blockSize, analyzer.getAccesses(), analyzer.getMisses(blocks));
+            if(blocks >= analyzer.getDistinctBlocks()) break;
+        }
+
+        // Set-associative. One set is the fully associative case above.
+        for(int sets = 2; sets <= maxSets; sets *= 2) {
+            for(int ways = 1; ways <= maxWays; ways *= 2) {
+                row(output, stream, sets, ways, blockSize, analyzer.getAccesses(), analyzer.getMisses(sets, ways));
+            }
+        }
+    }
+
+    private static void row(PrintStream output, String stream, int sets, long ways, int blockSize, long accesses,
+                            long misses) {
+        long blocks = sets * ways;
+        output.println(stream + "," + sets + "," + ways + "," + blocks + "," + blocks * blockSize + "," + accesses
+                + "," + misses + "," + (accesses == 0 ? 0 : (double)misses / accesses));
+    }
+}
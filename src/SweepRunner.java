@@ -0,0 +1,241 @@
+import com.opencsv.CSVReader;
+import model.Metrics;
+import model.Sampler;
+import model.SystemBus;
+import model.TraceSource;
+import trace.DecodedTrace;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs the simulator over every combination of a grid of configuration values.
+ * Usage: SweepRunner sweep.csv results.csv [config.csv] [trace] [checkpoint]
+ *
+ * Each line of the sweep file names a configuration key followed by the values to try, for example
+ * "l1_blocks,16,32,64". Keys that aren't swept keep their value from the base configuration. The trace is decoded
+ * once and shared by all of the simulations, which run in parallel on sweep_threads threads (all processors by
+ * default). The results get one row per configuration, written as JSON if the results file ends in .json and as
+ * CSV otherwise.
+ *
+ * Given a checkpoint (see SystemBus.saveCheckpoint), every simulation starts from it instead of from empty caches,
+ * so a warm-up is simulated once and shared by every configuration. The results are then those of the rest of the
+ * trace only. The configurations must have the structure of the one that saved the checkpoint; any that don't are
+ * reported as invalid.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class SweepRunner {
+    public static void main(String... args) {
+        if(args.length < 2) {
+            System.err.println("Usage: SweepRunner sweep.csv results.csv [config.csv] [trace] [checkpoint]");
+            System.exit(1);
+        }
+
+        try {
+            Map<String, Integer> base = Main.readConfig(new File(args.length > 2 ? args[2] : "config.csv"));
+            Map<String, List<String>> grid = readGrid(new File(args[0]));
+
+            DecodedTrace trace;
+            try(TraceSource source = Main.openTrace(args.length > 3 ? args[3] : "trace-5k.csv", base)) {
+                trace = DecodedTrace.load(source);
+            }
+
+            List<Map<String, String>> points = expand(grid);
+            Path checkpoint = args.length > 4 ? Paths.get(args[4]) : null;
+            List<Map<String, Long>> results = run(base, grid, points, trace, checkpoint,
+                    base.getOrDefault("sweep_threads", Runtime.getRuntime().availableProcessors()));
+
+            try(PrintStream output = new PrintStream(new File(args[1]))) {
+                if(args[1].endsWith(".json")) {
+                    writeJson(output, points, results);
+                } else {
+                    writeCsv(output, grid.keySet(), points, results);
+                }
+            }
+            System.out.println("Ran " + points.size() + " configurations.");
+        } catch(IOException e) {
+            System.err.println("Error reading input files: " + e.getMessage());
+            System.exit(1);
+        } catch(IllegalArgumentException e) {
+            System.err.println("Invalid sweep: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads the sweep file into an ordered map from configuration key to the values to try.
+     */
+    public static Map<String, List<String>> readGrid(File file) throws IOException {
+        Map<String, List<String>> grid = new LinkedHashMap<>();
+
+        try(CSVReader reader = new CSVReader(new FileReader(file))) {
+            String line[];
+            while((line = reader.readNext()) != null) {
+                if(line.length < 2) {
+                    throw new IllegalArgumentException("No values given for " + line[0] + ".");
+                }
+                List<String> values = new ArrayList<>();
+                for(int i = 1; i < line.length; i++) {
+                    Main.parseConfigValue(line[0], line[i]);    // Fail before running anything.
+                    values.add(line[i]);
+                }
+                grid.put(line[0], values);
+            }
+        }
+
+        return grid;
+    }
+
+    /**
+     * @return Every combination of the grid's values, with the first key changing slowest.
+     */
+    public static List<Map<String, String>> expand(Map<String, List<String>> grid) {
+        List<Map<String, String>> points = new ArrayList<>();
+        points.add(new LinkedHashMap<>());
+
+        for(Map.Entry<String, List<String>> axis : grid.entrySet()) {
+            List<Map<String, String>> expanded = new ArrayList<>();
+            for(Map<String, String> point : points) {
+                for(String value : axis.getValue()) {
+                    Map<String, String> copy = new LinkedHashMap<>(point);
+                    copy.put(axis.getKey(), value);
+                    expanded.add(copy);
+                }
+            }
+            points = expanded;
+        }
+
+        return points;
+    }
+
+    /**
+     * Simulates every point of the sweep on a fork-join pool.
+     *
+     * @param checkpoint The checkpoint every simulation starts from, or null to start from empty caches.
+     * @return The statistics of each point, in the same order as the points. A point whose configuration is
+     * invalid gets an empty map.
+     */
+    public static List<Map<String, Long>> run(Map<String, Integer> base, Map<String, List<String>> grid,
+                                              List<Map<String, String>> points, DecodedTrace trace,
+                                              Path checkpoint, int threads) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<ForkJoinTask<Map<String, Long>>> tasks = new ArrayList<>();
+            for(Map<String, String> point : points) {
+                Map<String, Integer> config = new HashMap<>(base);
+                // Every point already runs on its own thread, so don't nest the parallel engine unless asked to.
+                if(!grid.containsKey("threads")) {
+                    config.put("threads", 1);
+                }
+                for(Map.Entry<String, String> value : point.entrySet()) {
+                    config.put(value.getKey(), Main.parseConfigValue(value.getKey(), value.getValue()));
+                }
+
+                tasks.add(pool.submit(() -> simulate(config, trace, checkpoint)));
+            }
+
+            List<Map<String, Long>> results = new ArrayList<>();
+            for(ForkJoinTask<Map<String, Long>> task : tasks) {
+                results.add(task.get());
+            }
+            return results;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Sweep was interrupted.", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IllegalStateException("A simulation failed.", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Map<String, Long> simulate(Map<String, Integer> config, DecodedTrace trace, Path checkpoint)
+            throws IOException {
+        SystemBus bus;
+        Map<String, Long> restored = Collections.emptyMap();
+        try {
+            bus = new SystemBus(config);
+            if(checkpoint != null) {
+                bus.restoreCheckpoint(checkpoint);
+                restored = bus.gatherStatistics();
+            }
+        } catch(IllegalArgumentException e) {
+            return Collections.emptyMap();
+        }
+
+        Sampler sampler = Main.simulate(bus, trace.cursor(), config);
+
+        return sampler == null ? Metrics.difference(bus.gatherStatistics(), restored) : sampler.getStatistics();
+    }
+
+    private static void writeCsv(PrintStream output, Set<String> keys, List<Map<String, String>> points,
+                                 List<Map<String, Long>> results) {
+        Set<String> columns = columns(results);
+
+        StringJoiner header = new StringJoiner(",");
+        for(String key : keys) header.add(quote(key));
+        for(String column : columns) header.add(quote(column));
+        output.println(header);
+
+        for(int i = 0; i < points.size(); i++) {
+            StringJoiner row = new StringJoiner(",");
+            for(String key : keys) row.add(quote(points.get(i).get(key)));
+            for(String column : columns) {
+                Long value = results.get(i).get(column);
+                row.add(value == null ? "" : value.toString());
+            }
+            output.println(row);
+        }
+    }
+
+    private static void writeJson(PrintStream output, List<Map<String, String>> points,
+                                  List<Map<String, Long>> results) {
+        output.println("[");
+        for(int i = 0; i < points.size(); i++) {
+            StringJoiner row = new StringJoiner(", ", "  {", i + 1 < points.size() ? "}," : "}");
+            for(Map.Entry<String, String> value : points.get(i).entrySet()) {
+                row.add(json(value.getKey()) + ": " + json(value.getValue()));
+            }
+            if(results.get(i).isEmpty()) {
+                row.add("\"Invalid Configuration\": true");
+            }
+            for(Map.Entry<String, Long> stat : results.get(i).entrySet()) {
+                row.add(json(stat.getKey()) + ": " + stat.getValue());
+            }
+            output.println(row);
+        }
+        output.println("]");
+    }
+
+    /**
+     * @return Every statistic that appears in any of the results, in the order they first appear.
+     */
+    private static Set<String> columns(List<Map<String, Long>> results) {
+        Set<String> columns = new LinkedHashSet<>();
+        for(Map<String, Long> result : results) {
+            columns.addAll(result.keySet());
+        }
+        return columns;
+    }
+
+    private static String quote(String value) {
+        if(value.contains(",") || value.contains("\"")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static String json(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
@@ -0,0 +1,37 @@
+import model.TraceSource;
+import trace.BinaryTrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Converts a CSV trace into the binary trace format so it can be replayed without parsing.
+ * Usage: TraceConverter input.csv output.bin [config.csv]
+ * The input can also be a generated workload such as "synthetic:random:100000000", to save it as a file.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class TraceConverter {
+    public static void main(String... args) {
+        if(args.length < 2) {
+            System.err.println("Usage: TraceConverter input.csv output.bin [config.csv]");
+            System.exit(1);
+        }
+
+        try {
+            Map<String, Integer> config = Main.readConfig(new File(args.length > 2 ? args[2] : "config.csv"));
+
+            long records;
+            try(TraceSource source = Main.openTrace(args[0], config)) {
+                records = BinaryTrace.convert(source, new File(args[1]), config.get("block_size"),
+                        config.getOrDefault("cpu_count", 2));
+            }
+            System.out.println("Wrote " + records + " records to " + args[1]);
+        } catch(IOException e) {
+            System.err.println("Error converting trace: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package model;
+
+/**
+ * Splits memory addresses into tag, set and offset fields for a cache geometry.
+ * All shift counts and masks are computed once, so decoding an address is just a few shifts.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class AddressDecoder {
+    private final int offsetBits;
+    private final int setBits;
+    private final long offsetMask;
+    private final long setMask;
+
+    /**
+     * @param blockSize Size of a block in bytes. Must be a power of two.
+     * @param sets Number of sets (the number of blocks for a direct-mapped cache). Must be a power of two.
+     * @throws IllegalArgumentException If either size is not a power of two.
+     */
+    public AddressDecoder(int blockSize, int sets) {
+        offsetBits = log2(blockSize, "Block size");
+        setBits = log2(sets, "Number of sets");
+        offsetMask = blockSize - 1;
+        setMask = sets - 1;
+    }
+
+    /**
+     * @return True if value is a positive power of two.
+     */
+    public static boolean isPowerOfTwo(long value) {
+        return value > 0 && (value & (value - 1)) == 0;
+    }
+
+    /**
+     * Returns the base-2 logarithm of a power of two.
+     *
+     * @param value The value, which must be a power of two.
+     * @param name What the value is, used in the error message.
+     * @return The number of bits needed to index value items.
+     * @throws IllegalArgumentException If value is not a power of two.
+     */
+    public static int log2(int value, String name) {
+        if(!isPowerOfTwo(value)) {
+            throw new IllegalArgumentException(name + " must be a power of two, but was " + value + ".");
+        }
+        return Integer.numberOfTrailingZeros(value);
+    }
+
+    public int getOffsetBits() {
+        return offsetBits;
+    }
+
+    public int getSetBits() {
+        return setBits;
+    }
+
+    public int getSets() {
+        return (int)setMask + 1;
+    }
+
+    /**
+     * @return The byte offset of the address within its block.
+     */
+    public int offset(long address) {
+        return (int)(address & offsetMask);
+    }
+
+    /**
+     * @return The block address, which is the memory address with the offset bits removed.
+     */
+    public long block(long address) {
+        return address >>> offsetBits;  // The >>> prevents sign extension.
+    }
+
+    /**
+     * @return The set the address maps to.
+     */
+    public int set(long address) {
+        return (int)((address >>> offsetBits) & setMask);
+    }
+
+    /**
+     * @return The tag stored for the address.
+     */
+    public long tag(long address) {
+        return address >>> (offsetBits + setBits);
+    }
+
+    /**
+     * Rebuilds the address of the first byte of a block from its tag and set.
+     *
+     * @param tag The tag of the block.
+     * @param set The set the block is stored in.
+     * @return The block-aligned memory address.
+     */
+    public long address(long tag, int set) {
+        return ((tag << setBits) | set) << offsetBits;
+    }
+}
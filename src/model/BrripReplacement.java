@@ -0,0 +1,38 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * Bimodal RRIP. Like SRRIP, but most new blocks are inserted with a distant prediction so a scan can't flush the
+ * cache; one fill out of every THROTTLE is inserted with a long prediction instead.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class BrripReplacement extends SrripReplacement {
+    private static final int THROTTLE = 32;
+
+    private int fills = 0;
+
+    public BrripReplacement(int sets, int ways) {
+        super(sets, ways);
+    }
+
+    @Override
+    public void fill(int set, int way) {
+        fills = (fills + 1) % THROTTLE;
+        rrpv[set * ways + way] = fills == 0 ? LONG : DISTANT;
+    }
+
+    @Override
+    public void save(CheckpointWriter output) throws IOException {
+        super.save(output);
+        output.putInt(fills);
+    }
+
+    @Override
+    public void restore(CheckpointReader input) throws IOException {
+        super.restore(input);
+        fills = input.getInt();
+    }
+}
@@ -1,5 +1,6 @@
 package model;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Map;
 
@@ -36,28 +37,160 @@ public class CPU {
 
     private SystemBus system;
 
-    private int instructionCount = 0;
+    private int id;
+    private long instructionCount = 0;
+    private long time = 0;      // The sum of this CPU's instruction latencies.
+
+    private CoreTiming timing;  // Null unless the timing model is enabled.
+    private Profiler profiler;  // Null unless profiling is enabled.
+    private LatencyRecorder latencies;  // Null unless latency histograms are enabled.
+    private boolean prefetching = false;
+    private int level;          // The level that served the last access, for the timing model.
+    private LatencyRecorder.Level source;   // Where the last access was served from.
+    private boolean ownership;  // True if the last write had to ask for ownership of its block.
+
+    /**
+     * @param id The number of this CPU, starting at 1.
+     * @param config The system configuration.
+     * @param system The system bus the CPU is attached to.
+     */
+    public CPU(int id, Map<String, Integer> config, SystemBus system) {
+        this.id = id;
 
-    public CPU(Map<String, Integer> config, SystemBus system) {
         // Configure l1d
-        l1d = new Cache(config.get("l1_blocks"), config.get("block_size"),
-                config.get("associativity"), config.get("l1_latency"), system);
+        l1d = new Cache(config.get("l1_blocks"), config.get("associativity"), config.get("l1_latency"),
+                system.getL1Decoder(), replacement(config, "l1_replacement"), system.newRandomStream(), system);
 
         // Configure l1i
-        l1i = new Cache(config.get("l1_blocks"), config.get("block_size"),
-                config.get("associativity"), config.get("l1_latency"), system);
+        l1i = new Cache(config.get("l1_blocks"), config.get("associativity"), config.get("l1_latency"),
+                system.getL1Decoder(), replacement(config, "l1_replacement"), system.newRandomStream(), system);
 
         // Configure l2
-        l2 = new Cache(config.get("l2_blocks"), config.get("block_size"),
-                config.get("associativity"), config.get("l2_latency"), system);
+        l2 = new Cache(config.get("l2_blocks"), config.get("associativity"), config.get("l2_latency"),
+                system.getL2Decoder(), replacement(config, "l2_replacement"), system.newRandomStream(),
+                system);
+
+        l1d.setOwner(this);
+        l1i.setOwner(this);
+        l2.setOwner(this);
+
+        // Attach the configured prefetchers.
+        int degree = config.getOrDefault("prefetch_degree", 2);
+        int distance = config.getOrDefault("prefetch_distance", 4);
+        Cache caches[] = {l1i, l1d, l2};
+        String keys[] = {"l1i_prefetcher", "l1d_prefetcher", "l2_prefetcher"};
+        for(int i = 0; i < caches.length; i++) {
+            Integer type = config.get(keys[i]);
+            Prefetcher prefetcher = type == null ? null
+                    : Prefetcher.Type.values()[type].create(caches[i].getDecoder(), distance);
+            if(prefetcher != null) {
+                if(degree < 1) {
+                    throw new IllegalArgumentException("prefetch_degree must be at least 1, but was " + degree + ".");
+                }
+                caches[i].setPrefetcher(prefetcher, degree);
+                prefetching = true;
+            }
+        }
 
         this.system = system;   // Todo: This creates an interdependency; fix if time permits.
                                 // Message-passing is a better way to do this.
+
+        if(config.getOrDefault("timing", 0) != 0) {
+            timing = new CoreTiming(config, system);
+        }
+        if(config.getOrDefault("profile", 0) != 0) {
+            profiler = new Profiler(config.getOrDefault("profile_region_bits", 12));
+        }
+        if(config.getOrDefault("latency_histograms", 0) != 0) {
+            latencies = new LatencyRecorder();
+        }
     }
 
-    public int getInstructionCount() {
+    /**
+     * Returns the replacement policy configured under the passed key, or Random if it isn't configured.
+     */
+    static ReplacementPolicy.Type replacement(Map<String, Integer> config, String key) {
+        Integer policy = config.get(key);
+        return policy == null ? ReplacementPolicy.Type.RANDOM : ReplacementPolicy.Type.values()[policy];
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public long getInstructionCount() {
         return instructionCount;
     }
+
+    /**
+     * @return This CPU's own simulated time: its clock with the timing model, otherwise the sum of the latencies of
+     * the instructions it has executed.
+     */
+    public long getTime() {
+        return timing == null ? time : timing.getClock();
+    }
+
+    /**
+     * @return This CPU's timing model, or null if the timing model is disabled.
+     */
+    public CoreTiming getTiming() {
+        return timing;
+    }
+
+    /**
+     * @return This CPU's profiler, or null if profiling is disabled.
+     */
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * @return This CPU's latency histograms, or null if they are disabled.
+     */
+    public LatencyRecorder getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * Writes the CPU's caches, counters, timing model, profiler and latency histograms to a checkpoint.
+     */
+    void save(CheckpointWriter output) throws IOException {
+        output.section("CPU #" + id);
+        output.putLong(instructionCount);
+        output.putLong(time);
+        l1i.save(output);
+        l1d.save(output);
+        l2.save(output);
+
+        output.section(timing == null ? "Without Timing" : "With Timing");
+        if(timing != null) timing.save(output);
+        output.section(profiler == null ? "Without Profiler" : "With Profiler");
+        if(profiler != null) profiler.save(output);
+        output.section(latencies == null ? "Without Latencies" : "With Latencies");
+        if(latencies != null) latencies.save(output);
+    }
+
+    /**
+     * Replaces the CPU's state with that of a checkpoint written by save.
+     *
+     * @throws IllegalArgumentException If the checkpoint is of a CPU configured differently.
+     */
+    void restore(CheckpointReader input) throws IOException {
+        input.section("CPU #" + id);
+        instructionCount = input.getLong();
+        time = input.getLong();
+        l1i.restore(input);
+        l1d.restore(input);
+        l2.restore(input);
+
+        input.section(timing == null ? "Without Timing" : "With Timing");
+        if(timing != null) timing.restore(input);
+        input.section(profiler == null ? "Without Profiler" : "With Profiler");
+        if(profiler != null) profiler.restore(input);
+        input.section(latencies == null ? "Without Latencies" : "With Latencies");
+        if(latencies != null) latencies.restore(input);
+    }
+
     /**
      * Executes the passed Instruction.
      *
@@ -65,23 +198,158 @@ public class CPU {
      * @return Execution time in milliseconds.
      */
     public int execute(Instruction instruction) {
-        int time = 0;
+        long operations = timing == null ? 0 : system.getMemoryOperations();
+        if(timing != null) timing.takeWritebackReady();
+        if(profiler != null) profiler.begin(instruction);
 
         // Fetch the instruction.
         if(debug) debuggingOutput.println("Fetching instruction:");
-        time += readInstruction(instruction.instruction);
+        int fetch = readInstruction(instruction.instruction);
+        int fetchLevel = level;
+        LatencyRecorder.Level fetchSource = source;
+        long fetched = timing == null ? 0 : system.getMemoryOperations();
+        int fetchOperations = (int)(fetched - operations);
+        long fetchReady = timing == null ? 0 : timing.takeWritebackReady();
+
+        // Prefetches are off the instruction's critical path, so they add no latency.
+        if(prefetching) {
+            prefetch(l1i, true);
+            prefetch(l2, false);
+            fetched = timing == null ? 0 : system.getMemoryOperations();
+        }
 
         // Execute the memory operation.
+        int data = 0;
         if(instruction.memoryAction == Instruction.MemoryAction.READ) {
             if(debug) debuggingOutput.println("Memory read:");
-            time += readData(instruction.data);
+            data = readData(instruction.instruction, instruction.data);
         } else if(instruction.memoryAction == Instruction.MemoryAction.WRITE) {
             if(debug) debuggingOutput.println("Memory write:");
-            time += writeData(instruction.data);
+            data = writeData(instruction.instruction, instruction.data);
+        }
+
+        if(profiler != null) {
+            profiler.access(instruction.instruction, fetch, fetchLevel);
+            if(instruction.memoryAction != null) profiler.access(instruction.data, data, level);
+        }
+
+        if(timing != null) {
+            timing.execute(instruction, fetch, fetchLevel, fetchOperations, fetchReady,
+                    data, level, (int)(system.getMemoryOperations() - fetched), timing.takeWritebackReady());
         }
 
+        if(latencies != null) {
+            latencies.record(fetchSource, LatencyRecorder.Request.READ, timing == null ? fetch
+                    : timing.getFetchLatency());
+            if(instruction.memoryAction != null) {
+                LatencyRecorder.Request request = instruction.memoryAction == Instruction.MemoryAction.READ
+                        ? LatencyRecorder.Request.READ
+                        : ownership ? LatencyRecorder.Request.RFO : LatencyRecorder.Request.WRITE;
+                latencies.record(source, request, timing == null ? data : timing.getDataLatency());
+            }
+        }
+
+        if(prefetching) {
+            prefetch(l1d, false);
+            prefetch(l2, false);
+        }
+
+        system.fillVictims();
+
         instructionCount++;
-        return time;
+        time += fetch + data;
+        return fetch + data;
+    }
+
+    /**
+     * Executes the passed Instruction for functional warming: the caches' tags, replacement state and coherence
+     * states are updated as usual, but the timing model and the profiler don't see the instruction, prefetchers
+     * don't fill anything, and it doesn't count as executed. See Sampler.
+     */
+    public void warm(Instruction instruction) {
+        readInstruction(instruction.instruction);
+        if(instruction.memoryAction == Instruction.MemoryAction.READ) {
+            readData(instruction.instruction, instruction.data);
+        } else if(instruction.memoryAction == Instruction.MemoryAction.WRITE) {
+            writeData(instruction.instruction, instruction.data);
+        }
+
+        if(prefetching) {
+            l1i.clearPrefetches();
+            l1d.clearPrefetches();
+            l2.clearPrefetches();
+        }
+        system.fillVictims();
+    }
+
+    /**
+     * Fills the blocks a cache's prefetcher asked for on the last access. Blocks already in the cache are skipped.
+     * An L1 prefetch copies the block from L2 if it is there and otherwise reads it over the bus into L1 and L2, just
+     * like a demand miss; an L2 prefetch reads it over the bus into L2 only.
+     */
+    private void prefetch(Cache cache, boolean instruction) {
+        for(int i = 0; i < cache.getPrefetchCount(); i++) {
+            long address = cache.getPrefetch(i);
+            if(address < 0 || cache.probe(address) != -1) continue;
+
+            long operations = timing == null ? 0 : system.getMemoryOperations();
+            int latency;
+            int prefetchLevel = CoreTiming.BUS;
+            int indexL2 = cache == l2 ? -1 : l2.probe(address);
+            if(indexL2 != -1) {
+                int index = cache.add(address);
+                cache.setState(index, l2.getState(indexL2));
+                latency = l2.getLatency();
+                prefetchLevel = CoreTiming.L2;
+            } else if(cache == l2) {
+                latency = system.issuePrefetchRequest(address, this);
+            } else {
+                latency = system.issueReadRequest(address, this, instruction);
+            }
+
+            int index = cache.probe(address);
+            if(index == -1) continue;   // The address is outside of memory.
+            cache.markPrefetched(index);
+
+            if(timing != null) {
+                MissStatusRegisters registers = cache == l1i ? timing.getL1iRegisters()
+                        : cache == l1d ? timing.getL1dRegisters() : timing.getL2Registers();
+                timing.prefetch(registers, address, latency, prefetchLevel,
+                        (int)(system.getMemoryOperations() - operations), timing.takeWritebackReady());
+            }
+        }
+        cache.clearPrefetches();
+    }
+
+    /**
+     * Returns true if executing the instruction would only hit in this CPU's L1 caches without changing any line's
+     * state, so it can't place a request on the bus or affect another CPU. Doesn't count as an access.
+     */
+    public boolean isPrivate(Instruction instruction) {
+        // An L1 prefetcher may fill blocks after any access, and fills are visible to the rest of the system.
+        if(l1i.getPrefetcher() != null || l1d.getPrefetcher() != null) {
+            return false;
+        }
+        if(l1i.probe(instruction.instruction) == -1) {
+            return false;
+        }
+
+        if(instruction.memoryAction == Instruction.MemoryAction.READ) {
+            return l1d.probe(instruction.data) != -1;
+        } else if(instruction.memoryAction == Instruction.MemoryAction.WRITE) {
+            // Only a write that leaves the line in its state (to a Modified line) completes without a state change.
+            int index = l1d.probe(instruction.data);
+            return index != -1 && system.getProtocol().next(CoherenceProtocol.Event.WRITE, l1d.getState(index))
+                    == l1d.getState(index);
+        }
+        return true;
+    }
+
+    /**
+     * @return A number that changes whenever a block enters one of this CPU's caches or a line's state changes.
+     */
+    public long getVersion() {
+        return l1i.getVersion() + l1d.getVersion() + l2.getVersion();
     }
 
     public Cache getL1i() {
@@ -102,7 +370,10 @@ public class CPU {
         // First try the L1 instruction cache.
         if(debug) debuggingOutput.print("L1i: ");
         int indexL1 = l1i.locate(address);
+        l1i.demand(address, address, indexL1);
         if(indexL1 != -1){
+            level = CoreTiming.L1;
+            source = LatencyRecorder.Level.L1I;
             time += l1i.getLatency();
             return time;
         }
@@ -110,29 +381,37 @@ public class CPU {
         // Next try the L2 cache.
         if(debug) debuggingOutput.print("L2: ");
         int indexL2 = l2.locate(address);
+        l2.demand(address, address, indexL2);
         if(indexL2 != -1) {
             // Copy the value to L1 and set it to the same MESI state as L2.
             if(debug) debuggingOutput.print("L1i: ");
             int newIndexL1 = l1i.add(address);
             l1i.setState(newIndexL1, l2.getState(indexL2));
 
+            level = CoreTiming.L2;
+            source = LatencyRecorder.Level.L2;
             time += l2.getLatency();
             return time;
         }
 
         // Finally, request a read on the system bus.
         if(debug) debuggingOutput.println("System read request placed");
+        level = CoreTiming.BUS;
         time += system.issueReadRequest(address, this, true);
+        source = system.getServed();
         return time;
     }
 
-    private int readData(long address) {
+    private int readData(long pc, long address) {
         int time = 0;
 
         // First try the L1 data cache.
         if(debug) debuggingOutput.print("L1d: ");
         int indexL1 = l1d.locate(address);
+        l1d.demand(pc, address, indexL1);
         if(indexL1 != -1){
+            level = CoreTiming.L1;
+            source = LatencyRecorder.Level.L1D;
             time += l1d.getLatency();
             return time;
         }
@@ -140,24 +419,32 @@ public class CPU {
         // Next try the L2 cache.
         if(debug) debuggingOutput.print("L2: ");
         int indexL2 = l2.locate(address);
+        l2.demand(pc, address, indexL2);
         if(indexL2 != -1) {
             // Copy the value to L1 and set it to the same MESI state as L2.
             if(debug) debuggingOutput.print("L1d: ");
             int newIndexL1 = l1d.add(address);
             l1d.setState(newIndexL1, l2.getState(indexL2));
 
+            level = CoreTiming.L2;
+            source = LatencyRecorder.Level.L2;
             time += l2.getLatency();
             return time;
         }
 
         // Finally, request a read on the system bus.
         if(debug) debuggingOutput.println("System read request placed");
+        level = CoreTiming.BUS;
         time += system.issueReadRequest(address, this, false);
+        source = system.getServed();
         return time;
     }
 
-    private int writeData(long address) {
+    private int writeData(long pc, long address) {
         int time = 0;
+        level = CoreTiming.L1;
+        source = LatencyRecorder.Level.L1D;
+        ownership = false;
 
         // If the previous data exists already in the cache:
         if(debug) debuggingOutput.print("L1d: ");
@@ -166,48 +453,60 @@ public class CPU {
         if(debug) debuggingOutput.print("L1d: ");
         int indexL2 = l2.locate(address);
         time += l2.getLatency();
+        l1d.demand(pc, address, indexL1);
+        if(indexL1 == -1) {
+            l2.demand(pc, address, indexL2);
+        }
 
         if(indexL1 != -1) {
             time += l1d.getLatency();       // Increment time a second time, because a write is being performed.
 
-            if(l1d.isModified(indexL1)) {
-                // Update the value (no state change).
-            } else if(l1d.isExclusive(indexL1)) {
-                // Update the value.
-                l1d.setState(indexL1, CacheLine.MESI.Modified);
-                l2.setState(indexL2, CacheLine.MESI.Modified);
-                system.incrementModified(CacheLine.MESI.Exclusive); // MESI change: Exclusive -> Modified
-            } else if(l1d.isShared(indexL1)) {
-                time += system.issueRequestForOwnership(address, this);
-                // Update the value.
-                l1d.setState(indexL1, CacheLine.MESI.Modified);
-                l2.setState(indexL2, CacheLine.MESI.Modified);
-                system.incrementModified(CacheLine.MESI.Shared);    // MESI change: Shared -> Modified
+            // Update the value, first taking ownership of the block if other CPUs may share it.
+            CacheLine.State state = l1d.getState(indexL1);
+            time += upgrade(address, state);
+            CacheLine.State next = system.getProtocol().next(CoherenceProtocol.Event.WRITE, state);
+            if(next != state) {
+                l1d.setState(indexL1, next);
+                if(indexL2 != -1) l2.setState(indexL2, next);
+                system.countTransition(state, next);
             }
         } else if(indexL2 != -1) {
+            level = CoreTiming.L2;
+            source = LatencyRecorder.Level.L2;
             time += l2.getLatency();    // Increment time a second time, because a write is being performed.
 
-            if(l2.isModified(indexL2)) {
-                // Update the value (no state change).
-            } else if(l2.isExclusive(indexL2)) {
-                // Update the value.
-                l2.setState(indexL2, CacheLine.MESI.Modified);
-                system.incrementModified(CacheLine.MESI.Exclusive); // MESI change: Exclusive -> Modified
-            } else if(l2.isShared(indexL2)) {
-                time += system.issueRequestForOwnership(address, this);
-                // Update the value.
-                l2.setState(indexL2, CacheLine.MESI.Modified);
-                system.incrementModified(CacheLine.MESI.Shared);    // MESI change: Shared -> Modified
+            CacheLine.State state = l2.getState(indexL2);
+            time += upgrade(address, state);
+            CacheLine.State next = system.getProtocol().next(CoherenceProtocol.Event.WRITE, state);
+            if(next != state) {
+                l2.setState(indexL2, next);
+                system.countTransition(state, next);
             }
 
             // Bring the cache line in to l1d.
             int newIndexL1 = l1d.add(address);
             time += l1d.getLatency();   // Increment time a second time, because a write is being performed.
-            l1d.setState(newIndexL1, CacheLine.MESI.Modified);
+            l1d.setState(newIndexL1, next);
         } else {
+            level = CoreTiming.BUS;
             time += system.issueWriteRequest(address, this);
+            source = system.getServed();
         }
 
         return time;
     }
+
+    /**
+     * Places a request for ownership on the bus if the protocol needs one to write a line in the passed state.
+     *
+     * @return The latency of the request.
+     */
+    private int upgrade(long address, CacheLine.State state) {
+        if(!system.getProtocol().needsOwnership(state)) {
+            return 0;
+        }
+        level = CoreTiming.BUS;
+        ownership = true;
+        return system.issueRequestForOwnership(address, this);
+    }
 }
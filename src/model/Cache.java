@@ -1,7 +1,7 @@
 package model;
 
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.Random;
 
 /**
  * A memory cache, configurable to be direct-mapped or associative.
@@ -20,54 +20,258 @@ public class Cache {
      */
     public PrintStream debuggingOutput = System.out;
 
-    private static Random generator = new Random();
+    private long accesses = 0;
+    private long misses = 0;
 
-    private int accesses = 0;
-    private int misses = 0;
-
-    private CacheLine cache[];
+    /*
+     * Line i of the cache is stored as tags[i] and states[i], where states[i] holds the CacheLine status bits.
+     * Keeping the lines in two primitive arrays instead of one object per line keeps large caches compact and
+     * lets a set scan walk contiguous memory.
+     */
+    private long tags[];
+    private byte states[];
 
-    private int blocks;
-    private int blockSize;
     private int associativity;
     private int latency;
 
     private int extraLatency = 0;   // Latency when extra operations were done, for example clearing a cache line.
 
+    private long version = 0;       // Incremented whenever a line is filled or its status bits change.
+
+    private AddressDecoder decoder;
+    private ReplacementPolicy replacement;
+
     private SystemBus system;
+    private CPU owner;  // The CPU this cache is private to, or null for a shared cache.
+
+    private long lastVictim = -1;   // Address of the valid block the last add() evicted, or -1 if it evicted none.
+
+    // Prefetching. The arrays are only allocated if a prefetcher is attached.
+    private Prefetcher prefetcher;
+    private long prefetches[];      // The addresses the prefetcher asked for on the last demand access.
+    private int prefetchCount = 0;
+    private boolean prefetched[];   // True for lines filled by a prefetch that haven't been used yet.
+    private long displaced[];       // Blocks (plus one) evicted by prefetches, hashed by block number.
+    private long prefetchesIssued = 0;
+    private long prefetchesUseful = 0;
+    private long prefetchesPolluting = 0;
+
+    public Cache(int blocks, int blockSize, int associativity, int latency, ReplacementPolicy.Type replacement,
+                 SystemBus system) {
+        this(blocks, associativity, latency, new AddressDecoder(blockSize, blocks / associativity), replacement,
+                new RandomStream(0), system);
+    }
 
-    public Cache(int blocks, int blockSize, int associativity, int latency, SystemBus system) {
-        cache = new CacheLine[blocks];
-        for(int i = 0; i < blocks; i++) {
-            cache[i] = new CacheLine();
+    /**
+     * Creates a cache that decodes addresses with an existing decoder, so caches with the same geometry can share one.
+     *
+     * @param blocks Total number of blocks in the cache.
+     * @param associativity Number of blocks per set; 1 for a direct-mapped cache.
+     * @param latency Access latency in nanoseconds.
+     * @param decoder Decoder for this cache's block size and (blocks / associativity) sets.
+     * @param replacement The policy used to pick which block of a full set to evict.
+     * @param generator This cache's own stream of random numbers.
+     * @param system The system the cache is part of.
+     */
+    public Cache(int blocks, int associativity, int latency, AddressDecoder decoder,
+                 ReplacementPolicy.Type replacement, RandomStream generator, SystemBus system) {
+        if(decoder.getSets() * associativity != blocks) {
+            throw new IllegalArgumentException("A cache of " + blocks + " blocks can't be split into "
+                    + decoder.getSets() + " sets of " + associativity + ".");
         }
 
-        this.blocks = blocks;
-        this.blockSize = blockSize;
+        tags = new long[blocks];
+        states = new byte[blocks];
+
         this.associativity = associativity;
         this.latency = latency;
+        this.decoder = decoder;
+        this.replacement = replacement.create(decoder.getSets(), associativity, generator);
 
         this.system = system;
     }
 
+    public AddressDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * @return A number that changes every time a block is added to the cache or a line's status bits change.
+     * Lookups that hit don't change it.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public CPU getOwner() {
+        return owner;
+    }
+
+    /**
+     * @return The address of the valid block that the last call to add evicted, or -1 if it didn't evict one.
+     */
+    public long getLastVictim() {
+        return lastVictim;
+    }
+
+    /**
+     * Attaches a prefetcher to this cache, which will see every demand access passed to demand().
+     *
+     * @param degree The most blocks the prefetcher may ask for per access.
+     */
+    void setPrefetcher(Prefetcher prefetcher, int degree) {
+        this.prefetcher = prefetcher;
+        prefetches = new long[degree];
+        prefetched = new boolean[tags.length];
+        displaced = new long[tags.length];
+    }
+
+    public Prefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
+    /**
+     * Reports a demand access by the CPU (as opposed to a snoop or a fill) to the prefetcher, and counts whether it
+     * used a prefetched block or missed on a block a prefetch had evicted. The addresses the prefetcher wants can
+     * then be read with getPrefetchCount and getPrefetch.
+     *
+     * @param pc The address of the instruction making the access.
+     * @param address The address accessed.
+     * @param index The index locate returned for the access.
+     */
+    public void demand(long pc, long address, int index) {
+        if(prefetcher == null) return;
+
+        boolean used = false;
+        if(index != -1) {
+            if(prefetched[index]) {
+                prefetched[index] = false;
+                prefetchesUseful++;
+                used = true;
+            }
+        } else {
+            long block = decoder.block(address);
+            int slot = (int)(block & (displaced.length - 1));
+            if(displaced[slot] == block + 1) {
+                displaced[slot] = 0;
+                prefetchesPolluting++;
+            }
+        }
+
+        prefetchCount = prefetcher.access(pc, address, index != -1, used, prefetches);
+    }
+
+    /**
+     * @return How many addresses the prefetcher asked for on the last demand access.
+     */
+    public int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    public long getPrefetch(int i) {
+        return prefetches[i];
+    }
+
+    /**
+     * Forgets the prefetcher's requests once they have been issued.
+     */
+    public void clearPrefetches() {
+        prefetchCount = 0;
+    }
+
+    /**
+     * Marks the line at the passed index as just filled by a prefetch. Must be called right after the add that
+     * filled it, so the block it evicted is known.
+     */
+    public void markPrefetched(int index) {
+        prefetched[index] = true;
+        prefetchesIssued++;
+
+        if(lastVictim != -1) {
+            long block = decoder.block(lastVictim);
+            displaced[(int)(block & (displaced.length - 1))] = block + 1;
+        }
+    }
+
+    public long getPrefetchesIssued() {
+        return prefetchesIssued;
+    }
+
+    /**
+     * @return How many prefetched blocks were used by a demand access.
+     */
+    public long getPrefetchesUseful() {
+        return prefetchesUseful;
+    }
+
+    /**
+     * @return How many demand accesses missed on a block that a prefetch had evicted.
+     */
+    public long getPrefetchesPolluting() {
+        return prefetchesPolluting;
+    }
+
+    /**
+     * Marks this cache as private to a CPU, so the system is told whenever a block enters or leaves it.
+     */
+    void setOwner(CPU owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Looks for the passed memory address like locate, but without counting an access or updating the replacement
+     * policy. Used for bookkeeping that the simulated hardware wouldn't do as a lookup.
+     *
+     * @param address The memory address to search for.
+     * @return Index of block containing memory address in cache or -1 if address was not found or is invalid.
+     */
+    public int probe(long address) {
+        int first = decoder.set(address) * associativity;
+        long tag = decoder.tag(address);
+        for(int i = 0; i < associativity; i++) {
+            if(tags[first + i] == tag && (states[first + i] & CacheLine.VALID) != 0) {
+                return first + i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Rebuilds the block-aligned memory address of the block stored at the passed index.
+     */
+    public long addressOf(int index) {
+        return decoder.address(tags[index], index / associativity);
+    }
+
     public int getLatency() {
         int time = latency + extraLatency;
         extraLatency = 0;
         return time;
     }
 
-    public int getMisses() {
+    public long getMisses() {
         return misses;
     }
 
-    public int getHits() {
+    public long getHits() {
         return  accesses - misses;
     }
 
-    public int getAccesses() {
+    public long getAccesses() {
         return accesses;
     }
 
+    /**
+     * @return The number of valid blocks. It counts every block, so it is meant for statistics, not the access path.
+     */
+    public long getOccupancy() {
+        long occupancy = 0;
+        for(byte state : states) {
+            if((state & CacheLine.VALID) != 0) occupancy++;
+        }
+        return occupancy;
+    }
+
     /**
      * Finds and returns the index of the block containing the passed memory address if and only if the block is valid.
      *
@@ -75,33 +279,30 @@ public class Cache {
      * @return Index of block containing memory address in cache or -1 if address was not found or is invalid.
      */
     public int locate(long address) {
-        accesses++;
+        return lookup(decoder.set(address), decoder.tag(address));
+    }
 
-        int offsetBits = (int)(Math.log(blockSize) / Math.log(2));
-        // This is the memory address with the bits representing the offset truncated.
-        long offsetRemoved = address >>> offsetBits;  // The >>> prevents sign extension.
+    /**
+     * Searches a set for a valid block with the passed tag, counting the access and any miss.
+     */
+    private int lookup(int set, long tag) {
+        accesses++;
 
         // If the cache is a direct-mapped cache:
         if(associativity == 1) {
-            int indexBits = (int)(Math.log(blocks) / Math.log(2));
-            int index = (int) offsetRemoved & ~(0xFFFFFFFF << indexBits);
-            long tag = address >>> indexBits + offsetBits;  // The >>> prevents sign extension.
-
-            if(cache[index].tag == tag && cache[index].valid) {
-                if(debug) debuggingOutput.println("Tag " + tag + " located in line " + index + " of cache.");
+            if(tags[set] == tag && (states[set] & CacheLine.VALID) != 0) {
+                if(debug) debuggingOutput.println("Tag " + tag + " located in line " + set + " of cache.");
 
-                return index;
+                return set;
             }
         } else {
-            int setBits = (int)(Math.log(blocks / associativity) / Math.log(2));
-            int set = (int) offsetRemoved & ~(0xFFFFFFFF << setBits);
-            long tag = address >>> setBits + offsetBits;    // The >>> prevents sign extension.
-
+            int first = set * associativity;
             for(int i = 0; i < associativity; i++) {
-                if(cache[(set * associativity) + i].tag == tag && cache[(set * associativity) + i].valid) {
+                if(tags[first + i] == tag && (states[first + i] & CacheLine.VALID) != 0) {
                     if(debug) debuggingOutput.println("Tag " + tag + " located in set " + set + ", index " + i + " of cache.");
 
-                    return (set * associativity) + i;
+                    replacement.touch(set, i);
+                    return first + i;
                 }
             }
         }
@@ -113,7 +314,8 @@ public class Cache {
 
     /**
      * Adds the passed memory address into the cache if it doesn't exist already.
-     * For an associative cache, the Random replacement policy is used.
+     * For an associative cache, an empty way of the set is used if there is one; otherwise the cache's
+     * replacement policy picks the block to evict.
      *
      * Note: Does not change status bits.
      * It is assumed that the cache controller will mark all status bits as necessary.
@@ -122,50 +324,76 @@ public class Cache {
      * @return Index of block containing memory address that was just added.
      */
     public int add(long address) {
+        int set = decoder.set(address);
+        long tag = decoder.tag(address);
+        lastVictim = -1;
+
         // If it already exists in the cache, simply return the index where.
-        int index = locate(address);
-        if(index != -1 && cache[index].valid) {
+        int index = lookup(set, tag);
+        if(index != -1) {
             if(debug) debuggingOutput.println("A valid copy already exists at index " + index + " of cache.");
             return index;
         }
 
-        int offsetBits = (int)(Math.log(blockSize) / Math.log(2));
-        // This is the memory address with the bits representing the offset truncated.
-        long offsetRemoved = address >>> offsetBits;  // The >>> prevents sign extension.
-
         // If the cache is a direct-mapped cache:
         if(associativity == 1) {
-            int indexBits = (int)(Math.log(blocks) / Math.log(2));
-            index = (int) offsetRemoved & ~(0xFFFFFFFF << indexBits);
-            long tag = address >>> indexBits + offsetBits;  // The >>> prevents sign extension.
+            index = set;
 
-            if(cache[index].isModified()) {
-                extraLatency = system.saveModifiedCacheLine(address);
+            if(isModified(index)) {
+                extraLatency = system.saveModifiedCacheLine(this, addressOf(index));
             }
-            cache[index].tag = tag;
-            cache[index].valid = true;
+            replace(index, tag, address);
             if(debug) debuggingOutput.println("Tag " + tag + " added to line " + index + " of cache.");
             return index;
         }
 
         // If the cache is an associative cache:
         else {
-            int setBits = (int)(Math.log(blocks / associativity) / Math.log(2));
-            int set = (int) offsetRemoved & ~(0xFFFFFFFF << setBits);
-            long tag = address >>> setBits + offsetBits;    // The >>> prevents sign extension.
+            int first = associativity * set;
 
-            // For now it's inserting at random, as the instructions don't specify whether we are to do
-            // LRU or Random. Random is easier to implement.
-            index = generator.nextInt(associativity);
+            // Fill an empty way if there is one, otherwise let the replacement policy pick a victim.
+            int way = -1;
+            for(int i = 0; i < associativity; i++) {
+                if((states[first + i] & CacheLine.VALID) == 0) {
+                    way = i;
+                    break;
+                }
+            }
+            if(way == -1) {
+                way = replacement.victim(set);
+            }
+            index = first + way;
 
-            if(cache[index].isModified()) {
-                extraLatency = system.saveModifiedCacheLine(address);
+            if(isModified(index)) {
+                extraLatency = system.saveModifiedCacheLine(this, addressOf(index));
             }
-            cache[(associativity * set) + index].tag = tag;
-            cache[(associativity * set) + index].valid = true;
+            replace(index, tag, address);
+            replacement.fill(set, way);
 
-            if(debug) debuggingOutput.println("Tag " + tag + " added to set " + set + ", index " + index + " of cache.");
-            return (associativity * set) + index;
+            if(debug) debuggingOutput.println("Tag " + tag + " added to set " + set + ", index " + way + " of cache.");
+            return index;
+        }
+    }
+
+    /**
+     * Overwrites the line at the passed index with a new block, telling the system which block left the cache.
+     */
+    private void replace(int index, long tag, long address) {
+        boolean evicted = (states[index] & CacheLine.VALID) != 0;
+        long victim = evicted ? addressOf(index) : 0;
+
+        tags[index] = tag;
+        states[index] |= CacheLine.VALID;
+        version++;
+        if(evicted) lastVictim = victim;
+        if(prefetched != null) prefetched[index] = false;
+
+        if(owner != null) {
+            if(evicted) system.lineDropped(this, victim);
+            system.lineFilled(this, address);
+        }
+        if(evicted && system != null) {
+            system.lineEvicted(this, victim, (states[index] & CacheLine.DIRTY) != 0);
         }
     }
 
@@ -175,7 +403,10 @@ public class Cache {
      * @param index The index of the cache line to invalidate.
      */
     public void markInvalid(int index) {
-        cache[index].valid = false;
+        boolean valid = (states[index] & CacheLine.VALID) != 0;
+        states[index] &= ~CacheLine.VALID;
+        version++;
+        if(valid && owner != null) system.lineDropped(this, addressOf(index));
     }
 
     /**
@@ -184,7 +415,8 @@ public class Cache {
      * @param index The index of the cache line to validate.
      */
     public void markValid(int index) {
-        cache[index].valid = true;
+        states[index] |= CacheLine.VALID;
+        version++;
     }
 
     /**
@@ -193,7 +425,8 @@ public class Cache {
      * @param index The index of the cache line to share.
      */
     public void markShared(int index) {
-        cache[index].shared = true;
+        states[index] |= CacheLine.SHARED;
+        version++;
     }
 
     /**
@@ -202,7 +435,8 @@ public class Cache {
      * @param index The index of the cache line to mark as Exclusive.
      */
     public void markExclusive(int index) {
-        cache[index].shared = false;
+        states[index] &= ~CacheLine.SHARED;
+        version++;
     }
 
     /**
@@ -211,7 +445,8 @@ public class Cache {
      * @param index The index of the cache line that was modified.
      */
     public void markModified(int index) {
-        cache[index].dirty = true;
+        states[index] |= CacheLine.DIRTY;
+        version++;
     }
 
     /**
@@ -220,54 +455,103 @@ public class Cache {
      * @param index The index of the cache line that is not modified.
      */
     public void markNotModified(int index) {
-        cache[index].dirty = false;
+        states[index] &= ~CacheLine.DIRTY;
+        version++;
     }
 
+    /**
+     * @return True if the line is dirty: Modified, or Owned.
+     */
     public boolean isModified(int index) {
-        return cache[index].dirty;
+        return (states[index] & CacheLine.DIRTY) != 0;
     }
 
     public boolean isExclusive(int index) {
-        return !cache[index].shared;
+        return (states[index] & CacheLine.SHARED) == 0;
     }
 
     public boolean isShared(int index) {
-        return cache[index].shared;
+        return (states[index] & CacheLine.SHARED) != 0;
     }
 
     public boolean isInvalid(int index) {
-        return !cache[index].valid;
-    }
-
-    public void setState(int index, CacheLine.MESI state) {
-        if(state == CacheLine.MESI.Modified) {
-            cache[index].dirty = true;
-            cache[index].shared = false;
-            cache[index].valid = true;
-        } else if(state == CacheLine.MESI.Exclusive) {
-            cache[index].dirty = false;
-            cache[index].shared = false;
-            cache[index].valid = true;
-        } else if(state == CacheLine.MESI.Shared) {
-            cache[index].dirty = false;
-            cache[index].shared = true;
-            cache[index].valid = true;
-        } else if(state == CacheLine.MESI.Invalid) {
-            cache[index].dirty = false;
-            cache[index].shared = false;
-            cache[index].valid = false;
+        return (states[index] & CacheLine.VALID) == 0;
+    }
+
+    public void setState(int index, CacheLine.State state) {
+        version++;
+        if(state == CacheLine.State.Invalid) {
+            markInvalid(index);
         }
+        states[index] = state.getBits();
     }
 
-    public CacheLine.MESI getState(int index) {
-        if(cache[index].dirty && !cache[index].shared && cache[index].valid) {
-            return CacheLine.MESI.Modified;
-        } else if(!cache[index].dirty && !cache[index].shared && cache[index].valid) {
-            return CacheLine.MESI.Exclusive;
-        } else if(!cache[index].dirty && cache[index].shared && cache[index].valid) {
-            return CacheLine.MESI.Shared;
-        } else {
-            return CacheLine.MESI.Invalid;
+    /**
+     * Writes the cache's lines, replacement and prefetcher state, and counters to a checkpoint.
+     */
+    void save(CheckpointWriter output) throws IOException {
+        output.section("Cache");
+        output.putLong(accesses);
+        output.putLong(misses);
+        output.putLong(version);
+        output.putInt(extraLatency);
+        output.putLongs(tags);
+        output.putBytes(states);
+        replacement.save(output);
+
+        output.section(prefetcher == null ? "No Prefetcher" : "Prefetcher");
+        if(prefetcher != null) {
+            output.putLong(prefetchesIssued);
+            output.putLong(prefetchesUseful);
+            output.putLong(prefetchesPolluting);
+            output.putBooleans(prefetched);
+            output.putLongs(displaced);
+            prefetcher.save(output);
+        }
+    }
+
+    /**
+     * Replaces the cache's state with that of a checkpoint written by save.
+     *
+     * @throws IllegalArgumentException If the checkpoint is of a cache of a different geometry or policy.
+     */
+    void restore(CheckpointReader input) throws IOException {
+        input.section("Cache");
+        accesses = input.getLong();
+        misses = input.getLong();
+        version = input.getLong();
+        extraLatency = input.getInt();
+        input.getLongs(tags);
+        input.getBytes(states);
+        replacement.restore(input);
+
+        input.section(prefetcher == null ? "No Prefetcher" : "Prefetcher");
+        if(prefetcher != null) {
+            prefetchesIssued = input.getLong();
+            prefetchesUseful = input.getLong();
+            prefetchesPolluting = input.getLong();
+            input.getBooleans(prefetched);
+            input.getLongs(displaced);
+            prefetcher.restore(input);
+        }
+        prefetchCount = 0;
+        lastVictim = -1;
+    }
+
+    public CacheLine.State getState(int index) {
+        switch(states[index]) {
+            case CacheLine.VALID | CacheLine.DIRTY:
+                return CacheLine.State.Modified;
+            case CacheLine.VALID:
+                return CacheLine.State.Exclusive;
+            case CacheLine.VALID | CacheLine.SHARED:
+                return CacheLine.State.Shared;
+            case CacheLine.VALID | CacheLine.DIRTY | CacheLine.SHARED:
+                return CacheLine.State.Owned;
+            case CacheLine.VALID | CacheLine.SHARED | CacheLine.FORWARD:
+                return CacheLine.State.Forward;
+            default:
+                return CacheLine.State.Invalid;
         }
     }
 }
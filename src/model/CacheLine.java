@@ -1,48 +1,55 @@
 package model;
 
 /**
- * Wrapper class for a cache line.
+ * Status bits of a cache line, as packed into a Cache's state array.
  *
  * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
  * @version 1.0
  */
 public class CacheLine {
-    public long tag;
     /**
-     * True if valid.
+     * Set if valid.
      */
-    public boolean valid;
+    public static final byte VALID = 1;
     /**
-     * True if Modified.
+     * Set if Modified.
      */
-    public boolean dirty;
+    public static final byte DIRTY = 1 << 1;
     /**
-     * True if shareable, false if exclusive.
+     * Set if shareable, clear if exclusive.
      */
-    public boolean shared;
+    public static final byte SHARED = 1 << 2;
+    /**
+     * Set if this shared copy answers other CPUs' reads (MESIF).
+     */
+    public static final byte FORWARD = 1 << 3;
 
-    public CacheLine() {
-        tag = 0;
-        valid = false;
-        dirty = false;
-        shared = false;
+    private CacheLine() {
     }
 
-    public boolean isExclusive() {
-        return !shared;
-    }
+    /**
+     * The coherence states of a line, over all of the protocols (see CoherenceProtocol). An Owned line is dirty
+     * and shared.
+     */
+    public enum State {
+        Modified(VALID | DIRTY),
+        Exclusive(VALID),
+        Shared(VALID | SHARED),
+        Invalid(0),
+        Owned(VALID | DIRTY | SHARED),
+        Forward(VALID | SHARED | FORWARD);
 
-    public boolean isShared() {
-        return shared;
-    }
+        private final byte bits;
 
-    public boolean isInvalid() {
-        return !valid;
-    }
+        State(int bits) {
+            this.bits = (byte)bits;
+        }
 
-    public boolean isModified() {
-        return dirty;
+        /**
+         * @return The status bits of a line in this state.
+         */
+        public byte getBits() {
+            return bits;
+        }
     }
-
-    public enum MESI {Modified,Exclusive,Shared,Invalid}
 }
@@ -0,0 +1,156 @@
+package model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a checkpoint written by CheckpointWriter from a channel.
+ *
+ * Arrays are read back into the arrays of the system being restored, which must have the same lengths as the ones
+ * that were saved; likewise every section must have the name the component restoring it expects. Otherwise the
+ * checkpoint was taken with a configuration of a different shape, and an IllegalArgumentException is thrown.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class CheckpointReader implements AutoCloseable {
+    private static final int BUFFER = 1 << 20;
+
+    private ReadableByteChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+
+    /**
+     * Reads and checks the checkpoint header.
+     *
+     * @param channel The channel to read from. It is closed with the reader.
+     * @throws IOException If the channel doesn't hold a checkpoint.
+     */
+    public CheckpointReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        buffer.limit(0);
+
+        if(getLong() != CheckpointWriter.MAGIC) {
+            throw new IOException("Not a checkpoint file.");
+        }
+        int version = getInt();
+        if(version != CheckpointWriter.VERSION) {
+            throw new IOException("Checkpoint version " + version + " isn't supported.");
+        }
+    }
+
+    /**
+     * Reads the name that starts a component's part of the checkpoint.
+     *
+     * @throws IllegalArgumentException If it isn't the passed name.
+     */
+    public void section(String name) throws IOException {
+        String found = section();
+        if(!found.equals(name)) {
+            throw new IllegalArgumentException("The checkpoint has " + found + " where the configuration has "
+                    + name + ".");
+        }
+    }
+
+    /**
+     * Reads the name that starts a component's part of the checkpoint, for parts that may be restored differently
+     * depending on how they were saved.
+     */
+    public String section() throws IOException {
+        byte bytes[] = new byte[getInt()];
+        get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    public long getLong() throws IOException {
+        fill(Long.BYTES);
+        return buffer.getLong();
+    }
+
+    public int getInt() throws IOException {
+        fill(Integer.BYTES);
+        return buffer.getInt();
+    }
+
+    public boolean getBoolean() throws IOException {
+        fill(1);
+        return buffer.get() != 0;
+    }
+
+    public void getLongs(long values[]) throws IOException {
+        length(values.length);
+        for(int i = 0; i < values.length; ) {
+            fill(Long.BYTES);
+            int count = Math.min(values.length - i, buffer.remaining() / Long.BYTES);
+            buffer.asLongBuffer().get(values, i, count);
+            buffer.position(buffer.position() + count * Long.BYTES);
+            i += count;
+        }
+    }
+
+    public void getInts(int values[]) throws IOException {
+        length(values.length);
+        for(int i = 0; i < values.length; ) {
+            fill(Integer.BYTES);
+            int count = Math.min(values.length - i, buffer.remaining() / Integer.BYTES);
+            buffer.asIntBuffer().get(values, i, count);
+            buffer.position(buffer.position() + count * Integer.BYTES);
+            i += count;
+        }
+    }
+
+    public void getBytes(byte values[]) throws IOException {
+        length(values.length);
+        get(values);
+    }
+
+    public void getBooleans(boolean values[]) throws IOException {
+        length(values.length);
+        for(int i = 0; i < values.length; i++) {
+            fill(1);
+            values[i] = buffer.get() != 0;
+        }
+    }
+
+    private void length(int expected) throws IOException {
+        int length = getInt();
+        if(length != expected) {
+            throw new IllegalArgumentException("The checkpoint has an array of " + length
+                    + " where the configuration has one of " + expected + ".");
+        }
+    }
+
+    private void get(byte values[]) throws IOException {
+        for(int i = 0; i < values.length; ) {
+            fill(1);
+            int count = Math.min(values.length - i, buffer.remaining());
+            buffer.get(values, i, count);
+            i += count;
+        }
+    }
+
+    /**
+     * Reads from the channel until the buffer holds at least the passed number of bytes.
+     *
+     * @throws EOFException If the checkpoint ends first.
+     */
+    private void fill(int bytes) throws IOException {
+        if(buffer.remaining() >= bytes) {
+            return;
+        }
+        buffer.compact();
+        while(buffer.position() < bytes) {
+            if(channel.read(buffer) < 0) {
+                throw new EOFException("The checkpoint is truncated.");
+            }
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,138 @@
+package model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a checkpoint of the simulator's state to a channel, in the binary format CheckpointReader reads.
+ *
+ * Values are gathered in a direct buffer and handed to the channel a megabyte at a time. Arrays, such as a cache's
+ * tags and states, are copied into the buffer in bulk and preceded by their length, so restoring them into a
+ * system of a different size fails instead of misreading the rest of the checkpoint. Each component also starts
+ * its part with a section name, for the same reason.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class CheckpointWriter implements AutoCloseable {
+    static final long MAGIC = 0x4353494d434b5054L;  // "CSIMCKPT"
+    static final int VERSION = 1;
+
+    private static final int BUFFER = 1 << 20;
+
+    private WritableByteChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+
+    /**
+     * Writes the checkpoint header to the channel.
+     *
+     * @param channel The channel to write to. It is closed with the writer.
+     */
+    public CheckpointWriter(WritableByteChannel channel) throws IOException {
+        this.channel = channel;
+        putLong(MAGIC);
+        putInt(VERSION);
+    }
+
+    /**
+     * Starts a component's part of the checkpoint.
+     *
+     * @param name The name CheckpointReader.section expects, for example "LRU".
+     */
+    public void section(String name) throws IOException {
+        byte bytes[] = name.getBytes(StandardCharsets.US_ASCII);
+        putInt(bytes.length);
+        put(bytes, 0, bytes.length);
+    }
+
+    public void putLong(long value) throws IOException {
+        reserve(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    public void putInt(int value) throws IOException {
+        reserve(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    public void putBoolean(boolean value) throws IOException {
+        reserve(1);
+        buffer.put((byte)(value ? 1 : 0));
+    }
+
+    public void putLongs(long values[]) throws IOException {
+        putInt(values.length);
+        for(int i = 0; i < values.length; ) {
+            reserve(Long.BYTES);
+            int count = Math.min(values.length - i, buffer.remaining() / Long.BYTES);
+            buffer.asLongBuffer().put(values, i, count);
+            buffer.position(buffer.position() + count * Long.BYTES);
+            i += count;
+        }
+    }
+
+    public void putInts(int values[]) throws IOException {
+        putInt(values.length);
+        for(int i = 0; i < values.length; ) {
+            reserve(Integer.BYTES);
+            int count = Math.min(values.length - i, buffer.remaining() / Integer.BYTES);
+            buffer.asIntBuffer().put(values, i, count);
+            buffer.position(buffer.position() + count * Integer.BYTES);
+            i += count;
+        }
+    }
+
+    public void putBytes(byte values[]) throws IOException {
+        putInt(values.length);
+        put(values, 0, values.length);
+    }
+
+    public void putBooleans(boolean values[]) throws IOException {
+        putInt(values.length);
+        for(boolean value : values) {
+            reserve(1);
+            buffer.put((byte)(value ? 1 : 0));
+        }
+    }
+
+    private void put(byte values[], int offset, int length) throws IOException {
+        while(length > 0) {
+            reserve(1);
+            int count = Math.min(length, buffer.remaining());
+            buffer.put(values, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Makes room in the buffer for at least the passed number of bytes.
+     */
+    private void reserve(int bytes) throws IOException {
+        if(buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes whatever is left in the buffer and closes the channel.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * A cache coherence protocol, as a table of state transitions. The bus and the CPUs look up what happens to a line
+ * when its CPU writes it or another CPU snoops it, so the same request handling runs MESI, MOESI or MESIF:
+ * <ul>
+ *     <li>MESI - a Modified block that another CPU reads or writes is written back first.</li>
+ *     <li>MOESI - a Modified block that another CPU reads becomes Owned: it stays dirty and is shared without a
+ *     write back, and it is only written back when it is evicted. Dirty blocks move between CPUs without being
+ *     written back.</li>
+ *     <li>MESIF - like MESI, but only one Shared copy, the Forward one, answers reads. The CPU that read the block
+ *     last holds it in the Forward state.</li>
+ * </ul>
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class CoherenceProtocol {
+    /**
+     * What can happen to a valid line.
+     */
+    public enum Event {
+        /**
+         * The CPU holding the line writes it.
+         */
+        WRITE,
+        /**
+         * Another CPU reads the block.
+         */
+        SNOOP_READ,
+        /**
+         * Another CPU writes the block, or asks for ownership of it.
+         */
+        SNOOP_WRITE
+    }
+
+    public enum Type {
+        MESI, MOESI, MESIF;
+
+        /**
+         * Parses the name of a protocol as written in the configuration file.
+         *
+         * @throws IllegalArgumentException If the name isn't a known protocol.
+         */
+        public static Type parse(String name) {
+            String normalized = name.trim().toUpperCase();
+            for(Type type : values()) {
+                if(type.name().equals(normalized)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown coherence protocol \"" + name + "\".");
+        }
+
+        /**
+         * Builds the transition table of this protocol.
+         */
+        public CoherenceProtocol create() {
+            CoherenceProtocol protocol;
+            switch(this) {
+                case MOESI:
+                    protocol = new CoherenceProtocol(this, M, O, E, S, I);
+                    protocol.on(Event.SNOOP_READ, M, O, false);
+                    protocol.on(Event.SNOOP_READ, E, S, false);
+                    protocol.on(Event.SNOOP_WRITE, M, I, false);
+                    protocol.on(Event.SNOOP_WRITE, O, I, false);
+                    protocol.supply(M, O, E, S);
+                    break;
+                case MESIF:
+                    protocol = new CoherenceProtocol(this, M, E, S, I, F);
+                    protocol.on(Event.SNOOP_READ, M, S, true);
+                    protocol.on(Event.SNOOP_READ, E, S, false);
+                    protocol.on(Event.SNOOP_READ, F, S, false);
+                    protocol.on(Event.SNOOP_WRITE, M, I, true);
+                    protocol.supply(M, E, F);
+                    protocol.sharedFill = F;
+                    break;
+                default:
+                    protocol = new CoherenceProtocol(this, M, E, S, I);
+                    protocol.on(Event.SNOOP_READ, M, S, true);
+                    protocol.on(Event.SNOOP_READ, E, S, false);
+                    protocol.on(Event.SNOOP_WRITE, M, I, true);
+                    protocol.supply(M, E, S);
+                    break;
+            }
+
+            // Rules common to every protocol: a write leaves the line Modified, invalidating any other copies first
+            // if the line may be shared, and a write by another CPU invalidates the line.
+            for(CacheLine.State state : protocol.states) {
+                if(state == I) continue;
+
+                protocol.on(Event.WRITE, state, M, false);
+                protocol.ownership[state.ordinal()] = (state.getBits() & CacheLine.SHARED) != 0;
+                if(protocol.next[Event.SNOOP_WRITE.ordinal()][state.ordinal()] == state) {
+                    protocol.on(Event.SNOOP_WRITE, state, I, false);
+                }
+            }
+            return protocol;
+        }
+    }
+
+    private static final CacheLine.State M = CacheLine.State.Modified;
+    private static final CacheLine.State O = CacheLine.State.Owned;
+    private static final CacheLine.State E = CacheLine.State.Exclusive;
+    private static final CacheLine.State S = CacheLine.State.Shared;
+    private static final CacheLine.State I = CacheLine.State.Invalid;
+    private static final CacheLine.State F = CacheLine.State.Forward;
+
+    private Type type;
+    private CacheLine.State states[];       // The protocol's states, in the order of the transition matrix.
+    private int order[];                    // Position of each state in the matrix, or -1 if the protocol lacks it.
+
+    // Indexed by event and state ordinal.
+    private CacheLine.State next[][];
+    private boolean writeBack[][];
+
+    // Indexed by state ordinal.
+    private boolean ownership[];            // A write must invalidate the other copies first.
+    private boolean supplies[];             // The line answers other CPUs' reads.
+
+    private CacheLine.State sharedFill = S;
+
+    private CoherenceProtocol(Type type, CacheLine.State... states) {
+        this.type = type;
+        this.states = states;
+
+        int count = CacheLine.State.values().length;
+        order = new int[count];
+        Arrays.fill(order, -1);
+        for(int i = 0; i < states.length; i++) {
+            order[states[i].ordinal()] = i;
+        }
+
+        // Lines stay in their state unless a rule says otherwise.
+        next = new CacheLine.State[Event.values().length][count];
+        writeBack = new boolean[Event.values().length][count];
+        for(CacheLine.State row[] : next) {
+            Arrays.fill(row, I);
+            for(CacheLine.State state : states) {
+                row[state.ordinal()] = state;
+            }
+        }
+        ownership = new boolean[count];
+        supplies = new boolean[count];
+    }
+
+    private void on(Event event, CacheLine.State from, CacheLine.State to, boolean writesBack) {
+        next[event.ordinal()][from.ordinal()] = to;
+        writeBack[event.ordinal()][from.ordinal()] = writesBack;
+    }
+
+    private void supply(CacheLine.State... states) {
+        for(CacheLine.State state : states) {
+            supplies[state.ordinal()] = true;
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return The states of the protocol, in the order of the rows and columns of the transition matrix.
+     */
+    public CacheLine.State[] getStates() {
+        return states.clone();
+    }
+
+    /**
+     * @return The row and column of a state in the transition matrix.
+     * @throws IllegalArgumentException If the protocol has no such state.
+     */
+    public int indexOf(CacheLine.State state) {
+        int index = order[state.ordinal()];
+        if(index == -1) {
+            throw new IllegalArgumentException(type + " has no " + state + " state.");
+        }
+        return index;
+    }
+
+    /**
+     * @return The state a line in the passed state moves to when the event happens to it.
+     */
+    public CacheLine.State next(Event event, CacheLine.State state) {
+        return next[event.ordinal()][state.ordinal()];
+    }
+
+    /**
+     * @return True if the block must be written back before a line in the passed state handles the event.
+     */
+    public boolean writesBack(Event event, CacheLine.State state) {
+        return writeBack[event.ordinal()][state.ordinal()];
+    }
+
+    /**
+     * @return True if writing a line in the passed state needs a request for ownership on the bus.
+     */
+    public boolean needsOwnership(CacheLine.State state) {
+        return ownership[state.ordinal()];
+    }
+
+    /**
+     * @return True if a line in the passed state answers another CPU's read of the block.
+     */
+    public boolean supplies(CacheLine.State state) {
+        return supplies[state.ordinal()];
+    }
+
+    /**
+     * @return The state a CPU gets a block in when it reads it while other CPUs hold copies.
+     */
+    public CacheLine.State getSharedFill() {
+        return sharedFill;
+    }
+}
@@ -0,0 +1,290 @@
+package model;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The timing model of one CPU. The caches decide what each access hits or misses (the functional simulation); this
+ * class decides when it happens, on the CPU's own clock.
+ *
+ * The CPU issues one instruction every cycle_time nanoseconds. Instruction fetches that hit L1i are pipelined,
+ * but a fetch miss stalls issue until the instruction arrives. Data accesses don't stall issue: the CPU keeps going
+ * until either the window_size instructions in flight are waiting on the oldest one to complete, or it needs to
+ * start a miss and every MSHR of the cache is busy. So independent misses overlap, up to the number of MSHRs.
+ *
+ * A miss that goes to the bus also holds an L2 MSHR, waits for the bus, and waits for the memory channel if it
+ * reads or writes memory (see SystemBus.transfer). The caches are filled as soon as a miss starts, so a later hit
+ * on a block that is still in flight waits for its MSHR to complete.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class CoreTiming {
+    /**
+     * The level that served an access.
+     */
+    static final int L1 = 1, L2 = 2, BUS = 3;
+
+    private SystemBus system;
+    private AddressDecoder decoder;
+    private int cycleTime;
+
+    private MissStatusRegisters l1i;
+    private MissStatusRegisters l1d;
+    private MissStatusRegisters l2;
+
+    private long clock = 0;         // When the next instruction can issue.
+    private long finish = 0;        // When the last issued instruction completes.
+    private long completions[];     // When each of the last window_size instructions completes.
+    private long instructions = 0;
+
+    private long fetchStallTime = 0;
+    private long windowStallTime = 0;
+    private long mshrStallTime = 0;
+    private long missTime = 0;
+    private long mergedMisses = 0;
+
+    private long writebackReady = 0;    // When the writebacks of the current access found room in the write buffer.
+
+    // The latencies of the last instruction's fetch and data access, from when each could start until it completed.
+    private long fetchLatency;
+    private long dataLatency;
+
+    /**
+     * @param config The system configuration.
+     * @param system The system bus the CPU is attached to.
+     */
+    public CoreTiming(Map<String, Integer> config, SystemBus system) {
+        this.system = system;
+        decoder = system.getL1Decoder();
+        cycleTime = config.getOrDefault("cycle_time", 1);
+
+        int mshrs = config.getOrDefault("mshrs", 8);
+        l1i = new MissStatusRegisters(mshrs);
+        l1d = new MissStatusRegisters(mshrs);
+        l2 = new MissStatusRegisters(mshrs);
+
+        int window = config.getOrDefault("window_size", 64);
+        if(window < 1) {
+            throw new IllegalArgumentException("window_size must be at least 1, but was " + window + ".");
+        }
+        completions = new long[window];
+    }
+
+    /**
+     * Times an instruction the CPU has just executed.
+     *
+     * @param instruction The instruction.
+     * @param fetch The latency of fetching it, and the level (L1, L2 or BUS) and number of memory operations
+     *              the fetch needed.
+     * @param fetchReady When the writebacks the fetch queued found room in the write buffer, or 0.
+     * @param data The same for its data access, if it has one.
+     */
+    void execute(Instruction instruction, int fetch, int fetchLevel, int fetchOperations, long fetchReady,
+                 int data, int dataLevel, int dataOperations, long dataReady) {
+        long issue = clock;
+
+        if(fetchLevel != L1) {
+            long fetched = access(l1i, instruction.instruction, issue, fetch, fetchLevel, fetchOperations,
+                    fetchReady);
+            fetchStallTime += fetched - issue;
+            fetchLatency = fetched - issue;
+            issue = fetched;
+        } else {
+            long ready = l1i.demand(decoder.block(instruction.instruction), issue);
+            fetchLatency = Math.max(fetch, ready - issue);
+            issue = Math.max(issue, ready);
+        }
+
+        int slot = (int)(instructions % completions.length);
+        if(completions[slot] > issue) {
+            windowStallTime += completions[slot] - issue;
+            issue = completions[slot];
+        }
+
+        long done = issue + cycleTime;
+        if(instruction.memoryAction != null) {
+            done = access(l1d, instruction.data, issue, data, dataLevel, dataOperations, dataReady);
+            dataLatency = done - issue;
+        }
+
+        completions[slot] = done;
+        finish = Math.max(finish, done);
+        clock = issue + cycleTime;
+        instructions++;
+    }
+
+    /**
+     * @return When an access that starts at the passed time completes. It can't complete before its writebacks
+     * found room in the write buffer.
+     */
+    private long access(MissStatusRegisters l1, long address, long now, int latency, int level, int operations,
+                        long buffered) {
+        long block = decoder.block(address);
+
+        if(level == L1) {
+            long ready = l1.demand(block, now);
+            if(ready > now + latency) {
+                mergedMisses++;
+                return ready;
+            }
+            return now + latency;
+        }
+
+        long start = l1.available(now);
+        long done;
+        if(level == L2) {
+            done = Math.max(Math.max(start + latency, l2.demand(block, start)), buffered);
+        } else {
+            start = l2.available(start);
+            done = Math.max(system.transfer(start, address, latency, operations), buffered);
+            l2.allocate(block, done, false);
+        }
+        l1.allocate(block, done, false);
+
+        mshrStallTime += start - now;
+        missTime += done - start;
+        return done;
+    }
+
+    /**
+     * Times a prefetch issued after the current instruction. It waits for a free MSHR in the cache it fills, but
+     * the CPU doesn't wait for it.
+     *
+     * @param target The MSHRs of the cache the prefetch fills.
+     * @param address The address prefetched.
+     * @param latency Its latency without contention, and the level and memory operations it needed.
+     * @param ready When its writebacks found room in the write buffer, or 0.
+     */
+    void prefetch(MissStatusRegisters target, long address, int latency, int level, int operations, long ready) {
+        long start = target.available(clock);
+        long done = level == BUS ? system.transfer(start, address, latency, operations) : start + latency;
+        done = Math.max(done, ready);
+        target.allocate(decoder.block(address), done, true);
+    }
+
+    /**
+     * Called by the system bus when an access of this CPU had to wait for room in a full write buffer. The access
+     * is timed from when it actually starts, which can be after the CPU's clock, so the wait is passed on as the
+     * time the buffer had room rather than added to the access's latency.
+     *
+     * @param ready When the buffer had room.
+     */
+    void writebackQueued(long ready) {
+        writebackReady = Math.max(writebackReady, ready);
+    }
+
+    /**
+     * @return When the writebacks queued since the last call found room in the write buffer, or 0 if none waited.
+     */
+    long takeWritebackReady() {
+        long ready = writebackReady;
+        writebackReady = 0;
+        return ready;
+    }
+
+    /**
+     * @return How long the last instruction's fetch took, including any waiting for MSHRs, the bus or memory.
+     */
+    long getFetchLatency() {
+        return fetchLatency;
+    }
+
+    /**
+     * @return How long the last instruction's data access took, including any waiting for MSHRs, the bus or memory.
+     */
+    long getDataLatency() {
+        return dataLatency;
+    }
+
+    MissStatusRegisters getL1iRegisters() {
+        return l1i;
+    }
+
+    MissStatusRegisters getL1dRegisters() {
+        return l1d;
+    }
+
+    MissStatusRegisters getL2Registers() {
+        return l2;
+    }
+
+    /**
+     * @return The CPU's clock: no later request can start before it.
+     */
+    public long getClock() {
+        return clock;
+    }
+
+    /**
+     * @return When the CPU finished its last instruction.
+     */
+    public long getTime() {
+        return Math.max(clock, finish);
+    }
+
+    public long getFetchStallTime() {
+        return fetchStallTime;
+    }
+
+    public long getWindowStallTime() {
+        return windowStallTime;
+    }
+
+    public long getMshrStallTime() {
+        return mshrStallTime;
+    }
+
+    /**
+     * @return The total time misses were outstanding. Divided by getTime(), it is the average number of misses in
+     * flight, a measure of memory-level parallelism.
+     */
+    public long getMissTime() {
+        return missTime;
+    }
+
+    public long getMergedMisses() {
+        return mergedMisses;
+    }
+
+    /**
+     * Writes the CPU's clock, the instructions in flight, the outstanding misses and the stall counters to a
+     * checkpoint.
+     */
+    void save(CheckpointWriter output) throws IOException {
+        output.section("Timing");
+        output.putLong(clock);
+        output.putLong(finish);
+        output.putLongs(completions);
+        output.putLong(instructions);
+        output.putLong(fetchStallTime);
+        output.putLong(windowStallTime);
+        output.putLong(mshrStallTime);
+        output.putLong(missTime);
+        output.putLong(mergedMisses);
+        l1i.save(output);
+        l1d.save(output);
+        l2.save(output);
+    }
+
+    /**
+     * Replaces the timing state with that of a checkpoint written by save.
+     *
+     * @throws IllegalArgumentException If the checkpoint has a different window_size or number of MSHRs.
+     */
+    void restore(CheckpointReader input) throws IOException {
+        input.section("Timing");
+        clock = input.getLong();
+        finish = input.getLong();
+        input.getLongs(completions);
+        instructions = input.getLong();
+        fetchStallTime = input.getLong();
+        windowStallTime = input.getLong();
+        mshrStallTime = input.getLong();
+        missTime = input.getLong();
+        mergedMisses = input.getLong();
+        l1i.restore(input);
+        l1d.restore(input);
+        l2.restore(input);
+    }
+}
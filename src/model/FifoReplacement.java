@@ -0,0 +1,18 @@
+package model;
+
+/**
+ * Evicts the way that was filled the longest time ago, regardless of how recently it was used.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class FifoReplacement extends LruReplacement {
+    public FifoReplacement(int sets, int ways) {
+        super(sets, ways);
+    }
+
+    @Override
+    public void touch(int set, int way) {
+        // Hits don't change the order blocks leave the set in.
+    }
+}
@@ -0,0 +1,138 @@
+package model;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative longs with buckets that grow with the values, in the style of HdrHistogram: values
+ * below 256 get a bucket each, and every power of two range above that is split into 128 equal buckets. Any
+ * recorded value is known to within 1/128 of itself, from 0 to Long.MAX_VALUE, in a fixed 57 KB.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class Histogram {
+    private static final int SUB_BITS = 8;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;       // Values below this have a bucket each.
+    private static final int HALF = SUB_BUCKETS / 2;            // Buckets per power of two above that.
+
+    private long counts[] = new long[SUB_BUCKETS + (63 - SUB_BITS) * HALF];
+    private long count = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    /**
+     * Records one occurrence of a value.
+     *
+     * @throws IllegalArgumentException If the value is negative.
+     */
+    public void record(long value) {
+        if(value < 0) {
+            throw new IllegalArgumentException("A histogram can't record the negative value " + value + ".");
+        }
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    private static int index(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return SUB_BUCKETS + (shift - 1) * HALF + (int)(value >>> shift) - HALF;
+    }
+
+    /**
+     * @return The largest value that falls into the passed bucket.
+     */
+    private static long highest(int index) {
+        if(index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long sub = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Adds every value recorded by another histogram to this one.
+     */
+    public void add(Histogram other) {
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Forgets every recorded value.
+     */
+    public void clear() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    /**
+     * @return A histogram with the same values, which later records to this one don't change.
+     */
+    public Histogram copy() {
+        Histogram copy = new Histogram();
+        copy.add(this);
+        return copy;
+    }
+
+    /**
+     * Writes the histogram to a checkpoint.
+     */
+    void save(CheckpointWriter output) throws IOException {
+        output.putLongs(counts);
+        output.putLong(count);
+        output.putLong(sum);
+        output.putLong(max);
+    }
+
+    /**
+     * Replaces the histogram's values with those of a checkpoint written by save.
+     */
+    void restore(CheckpointReader input) throws IOException {
+        input.getLongs(counts);
+        count = input.getLong();
+        sum = input.getLong();
+        max = input.getLong();
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double)sum / count;
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100.
+     * @return The smallest value that the passed percentage of the recorded values are no larger than, to within
+     * the histogram's precision, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for(int i = 0; i < counts.length && count > 0; i++) {
+            seen += counts[i];
+            if(seen >= rank) {
+                return Math.min(highest(i), max);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,39 @@
+package model;
+
+/**
+ * How the blocks in a cache level relate to the blocks in the levels above it.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public enum Inclusion {
+    /**
+     * Every block above is also in this level. Evicting a block from this level invalidates it above.
+     */
+    INCLUSIVE,
+    /**
+     * A block is either above or in this level. Blocks enter this level only when evicted from above, and leave it
+     * when they are read back up.
+     */
+    EXCLUSIVE,
+    /**
+     * Non-inclusive, non-exclusive: this level is filled along with the levels above, but evicting a block from it
+     * leaves the copies above alone.
+     */
+    NINE;
+
+    /**
+     * Parses the name of a policy as written in the configuration file.
+     *
+     * @throws IllegalArgumentException If the name isn't a known policy.
+     */
+    public static Inclusion parse(String name) {
+        String normalized = name.trim().toUpperCase().replace("-", "").replace(" ", "");
+        for(Inclusion inclusion : values()) {
+            if(inclusion.name().equals(normalized)) {
+                return inclusion;
+            }
+        }
+        throw new IllegalArgumentException("Unknown inclusion policy \"" + name + "\".");
+    }
+}
@@ -0,0 +1,352 @@
+package model;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes a time series of the simulation's statistics: a row for every interval of interval_instructions
+ * instructions per CPU (trace records), or of interval_time ns of simulated time if that is set instead, with the
+ * hit rates, misses per thousand instructions, bus transactions, coherence state changes and memory traffic of the
+ * interval. The last row covers whatever is left when the trace ends. When sampling, the rows cover every round,
+ * including functional warming, whose cache accesses are counted but whose instructions aren't. If the simulated
+ * time jumps over several interval_time boundaries in one round, they make a single row.
+ *
+ * The rows are written as CSV, or as JSON Lines if the file name ends in .jsonl, by a background thread, so the
+ * simulation never waits for the file unless it gets more than a few thousand rows ahead of it. The parallel engine
+ * ends its batches of rounds at interval boundaries. It only checks the simulated time between batches, so for
+ * timed intervals it ends them where the simulated time per round so far says the boundary will be, and a timed
+ * interval can run over by however much that guess is off. A run resumed from a checkpoint that has rows appends
+ * to the file instead of replacing it.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class IntervalExporter implements AutoCloseable {
+    private static final int QUEUE = 4096;          // Rows that can wait for the writer.
+    private static final Object[] END = new Object[0];
+
+    private static final String LEVELS[] = {"L1", "L2", "L3"};
+    private static final long TIMED_BATCH = 16;     // Rounds per batch before the simulated time has a rate.
+
+    private SystemBus system;
+    private long instructions;      // The interval length in rounds, or 0 if intervals are timed.
+    private long time;              // The interval length in ns, or 0.
+
+    private long next;              // The round or time at which the current interval ends.
+    private long rows = 0;
+    private Map<String, Long> last; // The statistics at the start of the current interval.
+    private long lastChanges[][];
+    private CacheLine.State states[];
+    private boolean timed;
+
+    private List<String> columns = new ArrayList<>();
+    private FileOutputStream file;
+    private boolean json;
+    private boolean append;         // True if the rows before a restored checkpoint are already in the file.
+    private BlockingQueue<Object[]> queue = new ArrayBlockingQueue<>(QUEUE);
+    private Thread writer;          // Started with the first row, once a checkpoint may have been restored.
+    private volatile IOException failure;
+
+    /**
+     * @param config The system configuration.
+     * @param system The system to record.
+     * @param file The file to write the rows to.
+     * @throws IOException If the file can't be created.
+     * @throws IllegalArgumentException If the interval length is invalid.
+     */
+    public IntervalExporter(Map<String, Integer> config, SystemBus system, File file) throws IOException {
+        instructions = config.getOrDefault("interval_instructions", 0);
+        time = config.getOrDefault("interval_time", 0);
+        if(instructions < 0 || time < 0) {
+            throw new IllegalArgumentException("interval_instructions and interval_time must not be negative.");
+        }
+        if(time > 0 && config.getOrDefault("timing", 0) == 0) {
+            throw new IllegalArgumentException("interval_time needs the timing model, but timing is 0.");
+        }
+        if(time > 0) {
+            instructions = 0;
+        }
+
+        this.system = system;
+        begin();
+        states = system.getProtocol().getStates();
+        timed = last.containsKey("Simulated Time");
+
+        columns.add("Interval");
+        columns.add("Records");
+        columns.add("Instructions");
+        columns.add("Running Time");
+        if(timed) columns.add("Simulated Time");
+        for(String level : LEVELS) columns.add(level + " Hit Rate");
+        for(String level : LEVELS) columns.add(level + " MPKI");
+        columns.add("Bus Transactions");
+        for(CacheLine.State from : states) {
+            for(CacheLine.State to : states) {
+                if(from != to) columns.add(from + " to " + to);
+            }
+        }
+        columns.add("LM1 Reads");
+        columns.add("LM1 Writes");
+        columns.add("LM2 Reads");
+        columns.add("LM2 Writes");
+
+        // Opened for appending so a resumed run keeps the earlier rows; a new run truncates it in the writer.
+        this.file = new FileOutputStream(file, true);
+        json = file.getName().endsWith(".jsonl");
+    }
+
+    /**
+     * Starts an interval at the system's current state. After a checkpoint is restored, the intervals carry on from
+     * where it was saved.
+     */
+    private void begin() {
+        next = time > 0 ? (system.getSimulatedTime() / time + 1) * time
+                : (system.getStart() / instructions + 1) * instructions;
+        last = system.gatherStatistics();
+        lastChanges = system.getStateChanges();
+    }
+
+    /**
+     * Writes the number of rows written so far and the statistics at the start of the current interval to a
+     * checkpoint, so a resumed run numbers its rows and measures its first interval like an uninterrupted one.
+     */
+    void save(CheckpointWriter output) throws IOException {
+        output.putLong(rows);
+        long values[] = last.values().stream().mapToLong(Long::longValue).toArray();
+        output.putInt(values.length);
+        output.putLongs(values);
+        for(long row[] : lastChanges) {
+            output.putLongs(row);
+        }
+    }
+
+    /**
+     * Carries on from the interval of a checkpoint written by save, or, if the checkpoint was saved without
+     * interval statistics, starts a new one at the restored state.
+     *
+     * @param saved True if the checkpoint has the exporter's state.
+     */
+    void restore(CheckpointReader input, boolean saved) throws IOException {
+        begin();
+        if(!saved) return;
+
+        rows = input.getLong();
+        long values[] = new long[input.getInt()];
+        input.getLongs(values);
+        if(values.length != last.size()) {
+            throw new IllegalArgumentException("The checkpoint has " + values.length
+                    + " interval statistics where the configuration has " + last.size() + ".");
+        }
+        int i = 0;
+        for(Map.Entry<String, Long> entry : last.entrySet()) {
+            entry.setValue(values[i++]);
+        }
+        for(long row[] : lastChanges) {
+            input.getLongs(row);
+        }
+        append = rows > 0;
+    }
+
+    /**
+     * Reads past the exporter's state in a checkpoint that is restored without interval statistics.
+     */
+    static void skip(CheckpointReader input, int states) throws IOException {
+        input.getLong();
+        input.getLongs(new long[input.getInt()]);
+        for(int i = 0; i < states; i++) {
+            input.getLongs(new long[states]);
+        }
+    }
+
+    /**
+     * @return True if the configuration asks for interval statistics.
+     */
+    public static boolean isEnabled(Map<String, Integer> config) {
+        return config.getOrDefault("interval_instructions", 0) > 0 || config.getOrDefault("interval_time", 0) > 0;
+    }
+
+    /**
+     * Called by the replay after every round, or batch of rounds. Ends the interval if it is over.
+     *
+     * @param rounds The number of rounds executed so far.
+     */
+    void round(long rounds) {
+        if(instructions > 0 ? rounds >= next : system.getSimulatedTime() >= next) {
+            emit(rounds);
+            next = instructions > 0 ? next + instructions : (system.getSimulatedTime() / time + 1) * time;
+        }
+    }
+
+    /**
+     * @param rounds The number of rounds executed so far.
+     * @return The round at which the current interval ends. For timed intervals, an estimate from the simulated
+     * time per round so far.
+     */
+    long getNextRound(long rounds) {
+        if(instructions > 0) {
+            return next;
+        }
+        long now = system.getSimulatedTime();
+        if(rounds == 0 || now == 0) {
+            return rounds + TIMED_BATCH;
+        }
+        double estimate = (double)(next - now) * rounds / now;
+        return rounds + (long)Math.max(1, Math.min(estimate, Long.MAX_VALUE / 2));
+    }
+
+    /**
+     * Called by the replay once the trace has ended, to write the last, partial interval.
+     *
+     * @param rounds The number of rounds executed, which is the number of records plus the rounds the last CPU
+     *               trails behind the first. A replay that stops
+     * after a checkpoint doesn't call it, since the run resumed from the checkpoint finishes the interval.
+     */
+    void finish(long rounds) {
+        Map<String, Long> stats = system.gatherStatistics();
+        if(!stats.get("Running Time").equals(last.get("Running Time"))
+                || !stats.get("CPU #1 Instruction Count").equals(last.get("CPU #1 Instruction Count"))) {
+            emit(rounds);
+        }
+    }
+
+    private void emit(long rounds) {
+        Map<String, Long> stats = system.gatherStatistics();
+        long changes[][] = system.getStateChanges();
+
+        int cpus = (int)(long)stats.get("CPU Count");
+        long executed = 0;
+        long accesses[] = new long[LEVELS.length];
+        long misses[] = new long[LEVELS.length];
+        for(int cpu = 1; cpu <= cpus; cpu++) {
+            String name = "CPU #" + cpu;
+            executed += delta(stats, name + " Instruction Count");
+            accesses[0] += delta(stats, name + " L1i Accesses") + delta(stats, name + " L1d Accesses");
+            misses[0] += delta(stats, name + " L1i Misses") + delta(stats, name + " L1d Misses");
+            accesses[1] += delta(stats, name + " L2 Accesses");
+            misses[1] += delta(stats, name + " L2 Misses");
+        }
+        accesses[2] = delta(stats, "L3 Accesses");
+        misses[2] = delta(stats, "L3 Misses");
+
+        List<Object> row = new ArrayList<>(columns.size());
+        row.add(++this.rows);
+        row.add(rounds);
+        row.add(executed);
+        row.add(delta(stats, "Running Time"));
+        if(timed) row.add(stats.get("Simulated Time"));
+        for(int i = 0; i < LEVELS.length; i++) {
+            row.add(accesses[i] == 0 ? Double.NaN : (double)(accesses[i] - misses[i]) / accesses[i]);
+        }
+        for(int i = 0; i < LEVELS.length; i++) {
+            row.add(executed == 0 ? Double.NaN : 1000.0 * misses[i] / executed);
+        }
+        row.add(delta(stats, "Bus Transactions"));
+        for(int from = 0; from < states.length; from++) {
+            for(int to = 0; to < states.length; to++) {
+                if(from != to) row.add(changes[from][to] - lastChanges[from][to]);
+            }
+        }
+        row.add(delta(stats, "LM1 Reads"));
+        row.add(delta(stats, "LM1 Writes"));
+        row.add(delta(stats, "LM2 Reads"));
+        row.add(delta(stats, "LM2 Writes"));
+
+        last = stats;
+        lastChanges = changes;
+        put(row.toArray());
+    }
+
+    private long delta(Map<String, Long> stats, String name) {
+        return stats.get(name) - last.get(name);
+    }
+
+    private void put(Object row[]) {
+        if(writer == null) {
+            writer = new Thread(this::write, "interval-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        try {
+            queue.put(row);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing interval statistics.", e);
+        }
+    }
+
+    /**
+     * The writer thread: writes rows until it is given END. If writing fails it keeps taking rows, so the
+     * simulation never blocks on a full queue, and close() reports the failure. Unless it appends to the rows of a
+     * resumed run, it replaces the file's contents and starts with the header.
+     */
+    private void write() {
+        try(Writer out = new BufferedWriter(new OutputStreamWriter(file))) {
+            try {
+                if(!append) {
+                    file.getChannel().truncate(0);
+                    if(!json) out.write(String.join(",", columns) + "\n");
+                }
+            } catch(IOException e) {
+                failure = e;
+            }
+
+            while(true) {
+                Object row[] = queue.take();
+                if(row == END) break;
+                if(failure != null) continue;
+
+                StringBuilder line = new StringBuilder(json ? "{" : "");
+                for(int i = 0; i < row.length; i++) {
+                    if(i > 0) line.append(',');
+                    if(json) line.append('"').append(columns.get(i)).append("\":");
+                    line.append(json && row[i] instanceof Double && ((Double)row[i]).isNaN() ? "null" : row[i]);
+                }
+                line.append(json ? "}\n" : "\n");
+
+                try {
+                    out.write(line.toString());
+                } catch(IOException e) {
+                    failure = e;
+                }
+            }
+        } catch(IOException e) {
+            if(failure == null) failure = e;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The number of rows written so far.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * Waits for the writer to write every row and closes the file.
+     *
+     * @throws IOException If the rows couldn't be written.
+     */
+    @Override
+    public void close() throws IOException {
+        put(END);
+        try {
+            writer.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(failure != null) {
+            throw failure;
+        }
+    }
+}
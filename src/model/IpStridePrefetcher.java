@@ -0,0 +1,87 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * Learns the stride between consecutive accesses made by the same instruction, and once the same stride has been
+ * seen twice in a row, prefetches the next addresses along it.
+ *
+ * Instructions are tracked in a direct-mapped table indexed by their address; an instruction that maps to an entry
+ * held by another one takes the entry over.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class IpStridePrefetcher implements Prefetcher {
+    private static final int ENTRIES = 256;
+    private static final byte CONFIDENT = 2;
+    private static final byte MAX_CONFIDENCE = 3;
+
+    private AddressDecoder decoder;
+
+    private long pcs[] = new long[ENTRIES];
+    private long lastAddresses[] = new long[ENTRIES];
+    private long strides[] = new long[ENTRIES];
+    private byte confidence[] = new byte[ENTRIES];
+
+    public IpStridePrefetcher(AddressDecoder decoder) {
+        this.decoder = decoder;
+    }
+
+    @Override
+    public int access(long pc, long address, boolean hit, boolean prefetched, long requests[]) {
+        int entry = (int)((pc >>> 2) & (ENTRIES - 1));
+
+        if(pcs[entry] != pc) {
+            pcs[entry] = pc;
+            lastAddresses[entry] = address;
+            strides[entry] = 0;
+            confidence[entry] = 0;
+            return 0;
+        }
+
+        long stride = address - lastAddresses[entry];
+        lastAddresses[entry] = address;
+        if(stride == strides[entry]) {
+            if(confidence[entry] < MAX_CONFIDENCE) confidence[entry]++;
+        } else if(confidence[entry] > 0) {
+            confidence[entry]--;
+        } else {
+            strides[entry] = stride;
+        }
+
+        if(confidence[entry] < CONFIDENT || strides[entry] == 0) {
+            return 0;
+        }
+
+        // Strides smaller than a block would request the same block several times, so skip the repeats.
+        int count = 0;
+        long previous = decoder.block(address);
+        for(int i = 1; count < requests.length && i <= 4 * requests.length; i++) {
+            long block = decoder.block(address + i * strides[entry]);
+            if(block != previous) {
+                requests[count++] = block << decoder.getOffsetBits();
+                previous = block;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void save(CheckpointWriter output) throws IOException {
+        output.section("IP-Stride");
+        output.putLongs(pcs);
+        output.putLongs(lastAddresses);
+        output.putLongs(strides);
+        output.putBytes(confidence);
+    }
+
+    @Override
+    public void restore(CheckpointReader input) throws IOException {
+        input.section("IP-Stride");
+        input.getLongs(pcs);
+        input.getLongs(lastAddresses);
+        input.getLongs(strides);
+        input.getBytes(confidence);
+    }
+}
@@ -0,0 +1,234 @@
+package model;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Keeps histograms of one CPU's access latencies: one for every level that can serve an access, and one for every
+ * kind of request. Instruction fetches and data reads are reads; a write to a block
+ * the CPU shares is a request for ownership (RFO), and any other write is a write.
+ *
+ * The level is where the data came from. An RFO to a block in L1d is an L1d access, however long invalidating the
+ * other copies takes, so coherence traffic shows up in the RFO and write histograms. With the timing model enabled
+ * the latencies include waiting for MSHRs, the bus and memory.
+ *
+ * Every CPU has its own recorder, so the parallel engine's workers never share one.
+ *
+ * When sampling, only the accesses of the measured units are kept, like the sampled statistics: each unit's
+ * accesses are recorded separately and added to the histograms once the unit is complete.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class LatencyRecorder {
+    /**
+     * Where an access was served from.
+     */
+    public enum Level {
+        L1I("L1i"), L1D("L1d"), L2("L2"), REMOTE("Remote"), L3("L3"), LM1("LM1"), LM2("LM2");
+
+        private String label;
+
+        Level(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return The name used in the output, for example "L1d", or "Remote" for another CPU's cache.
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * What kind of access it was.
+     */
+    public enum Request {
+        READ("Read"), WRITE("Write"), RFO("RFO");
+
+        private String label;
+
+        Request(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final double PERCENTILES[] = {50, 99, 99.9};
+    private static final String PERCENTILE_NAMES[] = {"p50", "p99", "p99.9"};
+
+    private Histogram levels[] = new Histogram[Level.values().length];
+    private Histogram requests[] = new Histogram[Request.values().length];
+    private boolean sampled = false;    // True if only the accesses of complete sampling units are kept.
+    private boolean measuring = false;  // True during a sampling unit.
+    private LatencyRecorder unit;       // The current sampling unit's accesses.
+
+    public LatencyRecorder() {
+        for(int i = 0; i < levels.length; i++) {
+            levels[i] = new Histogram();
+        }
+        for(int i = 0; i < requests.length; i++) {
+            requests[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Records one access.
+     */
+    void record(Level level, Request request, long latency) {
+        if(sampled) {
+            if(measuring) unit.record(level, request, latency);
+            return;
+        }
+        levels[level.ordinal()].record(latency);
+        requests[request.ordinal()].record(latency);
+    }
+
+    /**
+     * Called by the Sampler before the replay. From then on, only the accesses of complete sampling units are kept.
+     */
+    void sample() {
+        sampled = true;
+        unit = new LatencyRecorder();
+    }
+
+    /**
+     * Called by the Sampler when a sampling unit starts.
+     */
+    void beginUnit() {
+        for(Histogram histogram : unit.levels) histogram.clear();
+        for(Histogram histogram : unit.requests) histogram.clear();
+        measuring = true;
+    }
+
+    /**
+     * Called by the Sampler when a sampling unit ends. Adds the unit's accesses to the histograms.
+     */
+    void endUnit() {
+        for(int i = 0; i < levels.length; i++) {
+            levels[i].add(unit.levels[i]);
+        }
+        for(int i = 0; i < requests.length; i++) {
+            requests[i].add(unit.requests[i]);
+        }
+        measuring = false;
+    }
+
+    public Histogram getLevel(Level level) {
+        return levels[level.ordinal()];
+    }
+
+    public Histogram getRequest(Request request) {
+        return requests[request.ordinal()];
+    }
+
+    /**
+     * @return A histogram of all of the CPU's accesses, which every access is in exactly one level of.
+     */
+    public Histogram getAll() {
+        Histogram all = new Histogram();
+        for(Histogram level : levels) {
+            all.add(level);
+        }
+        return all;
+    }
+
+    /**
+     * Registers the histograms with a metrics registry as "name level Latency" and "name request Latency".
+     *
+     * @param name The name of the CPU, for example "CPU #1".
+     */
+    void register(Metrics metrics, String name) {
+        for(Level level : Level.values()) {
+            metrics.histogram(name + " " + level.getLabel() + " Latency", getLevel(level));
+        }
+        for(Request request : Request.values()) {
+            metrics.histogram(name + " " + request.getLabel() + " Latency", getRequest(request));
+        }
+    }
+
+    /**
+     * Writes every histogram to a checkpoint.
+     */
+    void save(CheckpointWriter output) throws IOException {
+        output.section("Latencies");
+        for(Histogram histogram : levels) {
+            histogram.save(output);
+        }
+        for(Histogram histogram : requests) {
+            histogram.save(output);
+        }
+    }
+
+    /**
+     * Replaces every histogram with those of a checkpoint written by save.
+     */
+    void restore(CheckpointReader input) throws IOException {
+        input.section("Latencies");
+        for(Histogram histogram : levels) {
+            histogram.restore(input);
+        }
+        for(Histogram histogram : requests) {
+            histogram.restore(input);
+        }
+    }
+
+    /**
+     * Prints the count, mean, percentiles and maximum latency of every level and kind of request over all of the
+     * CPUs, and of every CPU's accesses.
+     */
+    public static void report(PrintStream output, SystemBus system) {
+        Histogram levels[] = new Histogram[Level.values().length];
+        Histogram requests[] = new Histogram[Request.values().length];
+        for(int i = 0; i < levels.length; i++) {
+            levels[i] = new Histogram();
+        }
+        for(int i = 0; i < requests.length; i++) {
+            requests[i] = new Histogram();
+        }
+        for(int cpu = 1; cpu <= system.getCpuCount(); cpu++) {
+            LatencyRecorder recorder = system.getCPU(cpu).getLatencies();
+            for(int i = 0; i < levels.length; i++) {
+                levels[i].add(recorder.levels[i]);
+            }
+            for(int i = 0; i < requests.length; i++) {
+                requests[i].add(recorder.requests[i]);
+            }
+        }
+
+        output.println();
+        output.println("Latency (ns):");
+        StringBuilder header = new StringBuilder(String.format("%-20s%15s%15s", "Accesses", "Count", "Mean"));
+        for(String percentile : PERCENTILE_NAMES) {
+            header.append(String.format("%15s", percentile));
+        }
+        header.append(String.format("%15s", "Max"));
+        output.println(header);
+
+        for(Level level : Level.values()) {
+            print(output, level.getLabel(), levels[level.ordinal()]);
+        }
+        for(Request request : Request.values()) {
+            print(output, request.getLabel(), requests[request.ordinal()]);
+        }
+        for(int cpu = 1; cpu <= system.getCpuCount(); cpu++) {
+            print(output, "CPU #" + cpu, system.getCPU(cpu).getLatencies().getAll());
+        }
+    }
+
+    private static void print(PrintStream output, String name, Histogram histogram) {
+        if(histogram.getCount() == 0) return;
+
+        StringBuilder line = new StringBuilder(String.format("%-20s%15d%15.1f", name, histogram.getCount(),
+                histogram.getMean()));
+        for(double percentile : PERCENTILES) {
+            line.append(String.format("%15d", histogram.getValueAtPercentile(percentile)));
+        }
+        line.append(String.format("%15d", histogram.getMax()));
+        output.println(line);
+    }
+}
@@ -0,0 +1,180 @@
+package model;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A hash table from long keys to a fixed number of long counters, kept in primitive arrays so counting never
+ * allocates or boxes. Open addressing with linear probing; the table doubles when it is half full.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class LongCounterTable {
+    private int columns;
+    private long keys[];
+    private boolean used[];
+    private long counters[];    // Row-major: the counters of row r start at r * columns.
+    private int mask;
+    private int size = 0;
+
+    /**
+     * @param columns The number of counters per key.
+     */
+    public LongCounterTable(int columns) {
+        this.columns = columns;
+        allocate(64);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        counters = new long[capacity * columns];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds to one of a key's counters, adding the key with all of its counters at zero if it isn't in the table.
+     */
+    public void add(long key, int column, long amount) {
+        int row = row(key);     // Before indexing counters, which row() replaces if the table grows.
+        counters[row * columns + column] += amount;
+    }
+
+    /**
+     * Adds to one of the counters of a row returned by row(). Rows stay valid until the next key is added.
+     */
+    public void addAt(int row, int column, long amount) {
+        counters[row * columns + column] += amount;
+    }
+
+    /**
+     * @return The row holding the key, which is added if it isn't in the table yet.
+     */
+    public int row(long key) {
+        int row = (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while(used[row]) {
+            if(keys[row] == key) {
+                return row;
+            }
+            row = (row + 1) & mask;
+        }
+
+        if(size * 2 >= keys.length) {
+            grow();
+            return row(key);
+        }
+        used[row] = true;
+        keys[row] = key;
+        size++;
+        return row;
+    }
+
+    private void grow() {
+        long oldKeys[] = keys;
+        boolean oldUsed[] = used;
+        long oldCounters[] = counters;
+
+        allocate(keys.length * 2);
+        size = 0;
+        for(int i = 0; i < oldKeys.length; i++) {
+            if(oldUsed[i]) {
+                System.arraycopy(oldCounters, i * columns, counters, row(oldKeys[i]) * columns, columns);
+            }
+        }
+    }
+
+    /**
+     * Adds every counter of another table with the same number of columns to this one.
+     */
+    public void addAll(LongCounterTable other) {
+        for(int i = 0; i < other.keys.length; i++) {
+            if(!other.used[i]) continue;
+
+            int row = row(other.keys[i]);
+            for(int column = 0; column < columns; column++) {
+                counters[row * columns + column] += other.counters[i * columns + column];
+            }
+        }
+    }
+
+    /**
+     * @return The rows in use, ordered by the passed counter from highest to lowest.
+     */
+    public int[] rowsByCounter(int column) {
+        Integer rows[] = new Integer[size];
+        int count = 0;
+        for(int i = 0; i < keys.length; i++) {
+            if(used[i]) rows[count++] = i;
+        }
+        Arrays.sort(rows, (a, b) -> Long.compare(get(b, column), get(a, column)));
+
+        int sorted[] = new int[size];
+        for(int i = 0; i < size; i++) {
+            sorted[i] = rows[i];
+        }
+        return sorted;
+    }
+
+    /**
+     * Sets one of the counters of a row returned by row().
+     */
+    public void setAt(int row, int column, long value) {
+        counters[row * columns + column] = value;
+    }
+
+    /**
+     * @return The number of rows, used or not. Rows are numbered from 0.
+     */
+    public int getRowCount() {
+        return keys.length;
+    }
+
+    /**
+     * @return True if the row holds a key.
+     */
+    public boolean isUsed(int row) {
+        return used[row];
+    }
+
+    public long getKey(int row) {
+        return keys[row];
+    }
+
+    public long get(int row, int column) {
+        return counters[row * columns + column];
+    }
+
+    /**
+     * @return The number of keys in the table.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes the table, as it is laid out, to a checkpoint.
+     */
+    void save(CheckpointWriter output) throws IOException {
+        output.section("Counter Table");
+        output.putInt(keys.length);
+        output.putInt(size);
+        output.putLongs(keys);
+        output.putBooleans(used);
+        output.putLongs(counters);
+    }
+
+    /**
+     * Replaces the table with one written by save.
+     *
+     * @throws IllegalArgumentException If the checkpoint's table has a different number of columns.
+     */
+    void restore(CheckpointReader input) throws IOException {
+        input.section("Counter Table");
+        allocate(input.getInt());
+        size = input.getInt();
+        input.getLongs(keys);
+        input.getBooleans(used);
+        input.getLongs(counters);
+    }
+}
@@ -0,0 +1,57 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * Evicts the least recently used way.
+ * Every line remembers the time it was last used, and the victim is the line with the oldest time.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class LruReplacement implements ReplacementPolicy {
+    protected int ways;
+    protected long lastUsed[];
+    protected long clock = 0;
+
+    public LruReplacement(int sets, int ways) {
+        this.ways = ways;
+        lastUsed = new long[sets * ways];
+    }
+
+    @Override
+    public void touch(int set, int way) {
+        lastUsed[set * ways + way] = ++clock;
+    }
+
+    @Override
+    public void fill(int set, int way) {
+        lastUsed[set * ways + way] = ++clock;
+    }
+
+    @Override
+    public int victim(int set) {
+        int first = set * ways;
+        int oldest = 0;
+        for(int i = 1; i < ways; i++) {
+            if(lastUsed[first + i] < lastUsed[first + oldest]) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    @Override
+    public void save(CheckpointWriter output) throws IOException {
+        output.section("LRU");
+        output.putLong(clock);
+        output.putLongs(lastUsed);
+    }
+
+    @Override
+    public void restore(CheckpointReader input) throws IOException {
+        input.section("LRU");
+        clock = input.getLong();
+        input.getLongs(lastUsed);
+    }
+}
@@ -1,5 +1,6 @@
 package model;
 
+import java.io.IOException;
 import java.io.PrintStream;
 
 /**
@@ -18,8 +19,8 @@ public class Memory {
      */
     public PrintStream debuggingOutput = System.out;
 
-    private int reads;
-    private int writes;
+    private long reads;
+    private long writes;
     private int size;
     private int readLatency;
     private int writeLatency;
@@ -69,21 +70,39 @@ public class Memory {
     }
 
     int getWriteLatency() {
-        return readLatency;
+        return writeLatency;
     }
 
-    int getReads() {
+    long getReads() {
         return reads;
     }
 
-    int getWrites() {
+    long getWrites() {
         return writes;
     }
 
     /** Returns the product of read latency and reads, summed with the product of writes and the write penalty.
      * @return The total time in ns.
      */
-    int getTotalTime() {
+    long getTotalTime() {
         return reads*readLatency + writes*writeLatency;
     }
+
+    /**
+     * Writes the read and write counts to a checkpoint.
+     */
+    void save(CheckpointWriter output) throws IOException {
+        output.section("Memory");
+        output.putLong(reads);
+        output.putLong(writes);
+    }
+
+    /**
+     * Replaces the read and write counts with those of a checkpoint written by save.
+     */
+    void restore(CheckpointReader input) throws IOException {
+        input.section("Memory");
+        reads = input.getLong();
+        writes = input.getLong();
+    }
 }
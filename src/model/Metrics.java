@@ -0,0 +1,130 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A registry of the simulator's named statistics, every one a long so that counts stay correct for traces of any
+ * length. Statistics are read in the order they were registered.
+ *
+ * There are two kinds of single-valued statistic:
+ * <ul>
+ *     <li>Counters, which the registry creates. They are LongAdders, striped across threads, so any number of the
+ *     parallel engine's workers can count into the same counter without contending for it.</li>
+ *     <li>Gauges, which read a value a component keeps itself. The hot per-access counters, such as a cache's
+ *     accesses and misses, are plain long fields of a component that only one thread uses at a time, and are
+ *     registered as gauges.</li>
+ * </ul>
+ * Distributions, such as latencies, are registered as Histograms, which also belong to a component.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class Metrics {
+    // Statistics that are levels rather than counts, so the difference between two snapshots is the later level.
+    // So is every occupancy, such as an L3 slice's.
+    private static final Set<String> LEVELS = new HashSet<>(Arrays.asList("CPU Count", "Snoop Filter Occupancy"));
+
+    private Map<String, LongSupplier> metrics = new LinkedHashMap<>();
+    private Map<String, Histogram> histograms = new LinkedHashMap<>();
+
+    /**
+     * Creates and registers a counter.
+     *
+     * @param name The name of the statistic.
+     * @return The new counter.
+     * @throws IllegalArgumentException If a statistic with the name is already registered.
+     */
+    public LongAdder counter(String name) {
+        LongAdder counter = new LongAdder();
+        gauge(name, counter::sum);
+        return counter;
+    }
+
+    /**
+     * Registers a statistic whose value is read from the passed supplier.
+     *
+     * @param name The name of the statistic.
+     * @throws IllegalArgumentException If a statistic with the name is already registered.
+     */
+    public void gauge(String name, LongSupplier value) {
+        if(metrics.putIfAbsent(name, value) != null) {
+            throw new IllegalArgumentException("The statistic \"" + name + "\" is already registered.");
+        }
+    }
+
+    /**
+     * Registers a histogram.
+     *
+     * @param name The name of the histogram.
+     * @throws IllegalArgumentException If a histogram with the name is already registered.
+     */
+    public void histogram(String name, Histogram histogram) {
+        if(histograms.putIfAbsent(name, histogram) != null) {
+            throw new IllegalArgumentException("The histogram \"" + name + "\" is already registered.");
+        }
+    }
+
+    /**
+     * @return True if a statistic with the passed name is registered.
+     */
+    public boolean contains(String name) {
+        return metrics.containsKey(name);
+    }
+
+    /**
+     * @return The names of the statistics, in the order they were registered.
+     */
+    public Iterable<String> getNames() {
+        return Collections.unmodifiableSet(metrics.keySet());
+    }
+
+    /**
+     * @return The current value of every statistic, in the order they were registered. Later changes to the
+     * statistics don't change the returned map.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        for(Map.Entry<String, LongSupplier> metric : metrics.entrySet()) {
+            snapshot.put(metric.getKey(), metric.getValue().getAsLong());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return A copy of every histogram, in the order they were registered.
+     */
+    public Map<String, Histogram> snapshotHistograms() {
+        Map<String, Histogram> snapshot = new LinkedHashMap<>();
+        for(Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+            snapshot.put(histogram.getKey(), histogram.getValue().copy());
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return True if the statistic is a level, such as an occupancy, rather than a count of events.
+     */
+    public static boolean isLevel(String name) {
+        return LEVELS.contains(name) || name.endsWith(" Occupancy");
+    }
+
+    /**
+     * @return The statistics of the period between two snapshots: the change in every count, and the level of
+     * every level at the end.
+     */
+    public static Map<String, Long> difference(Map<String, Long> end, Map<String, Long> start) {
+        Map<String, Long> difference = new LinkedHashMap<>();
+        for(Map.Entry<String, Long> entry : end.entrySet()) {
+            String name = entry.getKey();
+            difference.put(name, isLevel(name) ? entry.getValue() : entry.getValue() - start.getOrDefault(name, 0L));
+        }
+        return difference;
+    }
+}
@@ -0,0 +1,123 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * The miss-status holding registers (MSHRs) of one cache: one entry per miss that is still outstanding, so a
+ * non-blocking cache can keep several misses in flight at once. A later access to a block that is already being
+ * fetched merges into its entry instead of starting a new miss.
+ *
+ * Entries are kept as the block being fetched and the time its data arrives; an entry whose data has arrived is
+ * free again.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class MissStatusRegisters {
+    private long blocks[];
+    private long ready[];
+    private boolean prefetches[];   // True for entries started by a prefetch that no demand access has waited for.
+
+    private long latePrefetches = 0;
+
+    /**
+     * @param entries How many misses can be outstanding at once.
+     */
+    public MissStatusRegisters(int entries) {
+        if(entries < 1) {
+            throw new IllegalArgumentException("mshrs must be at least 1, but was " + entries + ".");
+        }
+        blocks = new long[entries];
+        ready = new long[entries];
+        prefetches = new boolean[entries];
+    }
+
+    /**
+     * @return When the outstanding miss for the block completes, or -1 if it isn't being fetched at the passed time.
+     */
+    public long pending(long block, long now) {
+        for(int i = 0; i < blocks.length; i++) {
+            if(blocks[i] == block && ready[i] > now) {
+                return ready[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Like pending, but for a demand access: if the block is being prefetched, the prefetch is counted as late.
+     */
+    public long demand(long block, long now) {
+        for(int i = 0; i < blocks.length; i++) {
+            if(blocks[i] == block && ready[i] > now) {
+                if(prefetches[i]) {
+                    prefetches[i] = false;
+                    latePrefetches++;
+                }
+                return ready[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The earliest time, no sooner than the passed time, at which an entry is free for a new miss.
+     */
+    public long available(long now) {
+        long earliest = ready[0];
+        for(int i = 1; i < ready.length; i++) {
+            earliest = Math.min(earliest, ready[i]);
+        }
+        return Math.max(now, earliest);
+    }
+
+    /**
+     * Records a new miss in the entry that frees up first.
+     *
+     * @param block The block being fetched.
+     * @param time When its data arrives.
+     * @param prefetch True if the miss is a prefetch rather than a demand access.
+     */
+    public void allocate(long block, long time, boolean prefetch) {
+        int entry = 0;
+        for(int i = 1; i < ready.length; i++) {
+            if(ready[i] < ready[entry]) {
+                entry = i;
+            }
+        }
+        blocks[entry] = block;
+        ready[entry] = time;
+        prefetches[entry] = prefetch;
+    }
+
+    /**
+     * @return How many prefetches were still outstanding when a demand access needed their block.
+     */
+    public long getLatePrefetches() {
+        return latePrefetches;
+    }
+
+    /**
+     * Writes the outstanding misses to a checkpoint.
+     */
+    void save(CheckpointWriter output) throws IOException {
+        output.section("MSHRs");
+        output.putLongs(blocks);
+        output.putLongs(ready);
+        output.putBooleans(prefetches);
+        output.putLong(latePrefetches);
+    }
+
+    /**
+     * Replaces the outstanding misses with those of a checkpoint written by save.
+     *
+     * @throws IllegalArgumentException If the checkpoint has a different number of entries.
+     */
+    void restore(CheckpointReader input) throws IOException {
+        input.section("MSHRs");
+        input.getLongs(blocks);
+        input.getLongs(ready);
+        input.getBooleans(prefetches);
+        latePrefetches = input.getLong();
+    }
+}
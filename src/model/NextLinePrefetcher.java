@@ -0,0 +1,40 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * Prefetches the blocks following one that misses, or one whose prefetch has just proven useful.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class NextLinePrefetcher implements Prefetcher {
+    private AddressDecoder decoder;
+
+    public NextLinePrefetcher(AddressDecoder decoder) {
+        this.decoder = decoder;
+    }
+
+    @Override
+    public int access(long pc, long address, boolean hit, boolean prefetched, long requests[]) {
+        if(hit && !prefetched) {
+            return 0;
+        }
+
+        long block = decoder.block(address);
+        for(int i = 0; i < requests.length; i++) {
+            requests[i] = (block + i + 1) << decoder.getOffsetBits();
+        }
+        return requests.length;
+    }
+
+    @Override
+    public void save(CheckpointWriter output) throws IOException {
+        output.section("Next-Line");
+    }
+
+    @Override
+    public void restore(CheckpointReader input) throws IOException {
+        input.section("Next-Line");
+    }
+}
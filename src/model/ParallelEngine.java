@@ -0,0 +1,265 @@
+package model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Replays a trace like SystemBus.replay, but runs the CPUs' private cache work on a pool of threads.
+ *
+ * The sequential engine executes round r as CPU 1, CPU 2, ..., CPU n, where CPU n runs record r - (n - 1) * lag.
+ * An instruction that only hits in its CPU's L1 caches (see CPU.isPrivate) touches nothing but that CPU's own
+ * caches, so runs of such instructions on different CPUs can execute at the same time. Every other instruction may
+ * use the bus, so it is executed alone, in exactly the (round, CPU) order the sequential engine would use. This
+ * serves as the bus arbiter and makes the results identical to SystemBus.replay.
+ *
+ * Whether an instruction is private is decided ahead of time by probing the CPU's caches. That decision stays
+ * valid until a bus request changes one of the CPU's lines, which is detected with the caches' version numbers.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class ParallelEngine {
+    private static final int BATCH = 1 << 14;       // Rounds read from the trace at a time.
+    private static final int CHUNK = 256;           // Rounds classified ahead of a CPU at a time.
+    private static final int MIN_PARALLEL = 512;    // Less private work than this runs on the calling thread.
+
+    private SystemBus system;
+    private CPU cpus[];
+    private int threads;
+
+    private TraceWindow window;
+    private int lag;
+
+    // Progress of each CPU within the current batch.
+    private long next[];        // The next round the CPU has to execute.
+    private long known[];       // Rounds [next, known) are known to be private for the CPU.
+    private boolean blocked[];  // True if the CPU's instruction in round known is known to need the bus.
+    private long versions[];    // The CPU's cache version when it was classified.
+
+    private CoreTask tasks[];
+
+    /**
+     * @param system The system to simulate.
+     * @param threads Number of worker threads.
+     */
+    public ParallelEngine(SystemBus system, int threads) {
+        this.system = system;
+        this.threads = threads;
+
+        int n = system.getCpuCount();
+        cpus = new CPU[n];
+        tasks = new CoreTask[n];
+        for(int i = 0; i < n; i++) {
+            cpus[i] = system.getCPU(i + 1);
+            tasks[i] = new CoreTask(i);
+        }
+
+        next = new long[n];
+        known = new long[n];
+        blocked = new boolean[n];
+        versions = new long[n];
+    }
+
+    /**
+     * Streams a trace through every CPU, with the same interleaving and results as SystemBus.replay.
+     *
+     * @param source The trace to replay.
+     * @param lag How many instructions each CPU trails behind the one before it.
+     * @throws IOException If the trace could not be read.
+     */
+    public void replay(TraceSource source, int lag) throws IOException {
+        long span = (long)(cpus.length - 1) * lag;
+        window = new TraceWindow(source, (int)(span + BATCH));
+        this.lag = lag;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "cpu-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        IntervalExporter intervals = system.getIntervals();
+        try {
+            // When resuming, the records no CPU will look at again are skipped instead of read.
+            long start = system.getStart();
+            boolean more = window.skip(Math.max(0, start - span));
+            for(long round = start; ; ) {
+                long target = round + BATCH;
+                while(more && window.getPosition() < target) {
+                    more = window.advance();
+                }
+                long end = more ? target : Math.min(target, window.getPosition() + span);
+                if(round >= end) {
+                    break;
+                }
+                if(intervals != null) {
+                    end = Math.min(end, intervals.getNextRound(round));
+                }
+                end = Math.min(end, system.getNextCheckpoint(round));
+
+                runBatch(pool, round, end);
+                round = end;
+                if(intervals != null) {
+                    intervals.round(round);
+                }
+                if(system.checkpoint(round)) {
+                    return;     // The run resumed from the checkpoint finishes the last interval.
+                }
+            }
+            if(intervals != null) {
+                intervals.finish(window.getPosition() + span);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Executes rounds [first, end) of the trace.
+     */
+    private void runBatch(ExecutorService pool, long first, long end) {
+        for(int i = 0; i < cpus.length; i++) {
+            next[i] = first;
+            classify(i, end, CHUNK);
+        }
+
+        while(true) {
+            // Find the first instruction, in sequential order, that isn't known to be private.
+            long round = end;
+            int cpu = 0;
+            for(int i = 0; i < cpus.length; i++) {
+                if(known[i] < round) {
+                    round = known[i];
+                    cpu = i;
+                }
+            }
+
+            // Everything before it can run in parallel.
+            runPrivate(pool, round, cpu, end);
+            if(round == end) {
+                return;
+            }
+
+            // If the instruction needs the bus, execute it on its own, then reclassify every CPU it affected.
+            if(blocked[cpu] && known[cpu] == round) {
+                Instruction instruction = instruction(cpu, round);
+                system.execute(instruction, cpu + 1);
+                next[cpu] = round + 1;
+
+                for(int i = 0; i < cpus.length; i++) {
+                    if(i == cpu || versions[i] != cpus[i].getVersion()) {
+                        classify(i, end, CHUNK / 16);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Executes, on every CPU, the private instructions that come before round `round` of CPU `cpu` in sequential
+     * order, and then classifies further ahead for the CPUs that have run out of classified instructions.
+     */
+    private void runPrivate(ExecutorService pool, long round, int cpu, long end) {
+        long work = 0;
+        for(int i = 0; i < cpus.length; i++) {
+            tasks[i].limit = i < cpu ? round + 1 : round;
+            tasks[i].end = end;
+            work += tasks[i].limit - next[i];
+        }
+
+        if(threads <= 1 || work < MIN_PARALLEL) {
+            for(CoreTask task : tasks) {
+                task.call();
+            }
+        } else {
+            List<CoreTask> list = new ArrayList<>(tasks.length);
+            for(CoreTask task : tasks) {
+                list.add(task);
+            }
+            try {
+                for(Future<Void> future : pool.invokeAll(list)) {
+                    future.get();
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Simulation was interrupted.", e);
+            } catch(ExecutionException e) {
+                throw new IllegalStateException("A CPU worker failed.", e.getCause());
+            }
+        }
+
+        for(CoreTask task : tasks) {
+            system.addRunningTime(task.time);
+            task.time = 0;
+        }
+    }
+
+    /**
+     * Finds how far past next[cpu] the CPU's instructions are private, looking at most `chunk` rounds ahead.
+     */
+    private void classify(int cpu, long end, int chunk) {
+        long round = next[cpu];
+        long limit = Math.min(end, round + chunk);
+        blocked[cpu] = false;
+
+        for(; round < limit; round++) {
+            Instruction instruction = instruction(cpu, round);
+            if(instruction != null && !cpus[cpu].isPrivate(instruction)) {
+                blocked[cpu] = true;
+                break;
+            }
+        }
+
+        known[cpu] = round;
+        versions[cpu] = cpus[cpu].getVersion();
+    }
+
+    /**
+     * @return The instruction the CPU executes in the passed round, or null if it has none.
+     */
+    private Instruction instruction(int cpu, long round) {
+        long record = round - (long)cpu * lag;
+        if(record < 0 || record >= window.getPosition()) {
+            return null;
+        }
+        return window.get(record);
+    }
+
+    /**
+     * Runs one CPU's private instructions up to a limit, then classifies ahead of it if needed.
+     */
+    private class CoreTask implements Callable<Void> {
+        private int cpu;
+        long limit;
+        long end;
+        long time = 0;
+
+        CoreTask(int cpu) {
+            this.cpu = cpu;
+        }
+
+        @Override
+        public Void call() {
+            for(long round = next[cpu]; round < limit; round++) {
+                Instruction instruction = instruction(cpu, round);
+                if(instruction != null) {
+                    time += cpus[cpu].execute(instruction);
+                }
+            }
+            if(limit > next[cpu]) {
+                next[cpu] = limit;
+            }
+
+            if(!blocked[cpu] && known[cpu] == next[cpu] && next[cpu] < end) {
+                classify(cpu, end, CHUNK);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * Watches the demand accesses to a Cache and predicts which blocks will be needed next, so the CPU can fetch them
+ * before they are asked for. Implementations only make predictions; the CPU fills the blocks through the usual
+ * cache and bus requests, so prefetched blocks follow the coherence protocol like any other.
+ *
+ * Like replacement policies, prefetchers keep their tables in primitive arrays sized when they are built.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public interface Prefetcher {
+    /**
+     * Called for every demand access to the cache the prefetcher is attached to.
+     *
+     * @param pc The address of the instruction making the access.
+     * @param address The address accessed.
+     * @param hit True if the access hit.
+     * @param prefetched True if the access was the first use of a prefetched block.
+     * @param requests Where to store the addresses to prefetch.
+     * @return How many addresses were stored in requests.
+     */
+    int access(long pc, long address, boolean hit, boolean prefetched, long requests[]);
+
+    /**
+     * Writes the prefetcher's tables to a checkpoint.
+     */
+    void save(CheckpointWriter output) throws IOException;
+
+    /**
+     * Replaces the prefetcher's tables with those of a checkpoint written by save.
+     */
+    void restore(CheckpointReader input) throws IOException;
+
+    enum Type {
+        NONE, NEXTLINE, IPSTRIDE, STREAM;
+
+        /**
+         * Parses the name of a prefetcher as written in the configuration file, such as "Next-Line" or "IP-Stride".
+         *
+         * @throws IllegalArgumentException If the name isn't a known prefetcher.
+         */
+        public static Type parse(String name) {
+            String normalized = name.trim().toUpperCase().replace("-", "").replace(" ", "");
+            for(Type type : values()) {
+                if(type.name().equals(normalized)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown prefetcher \"" + name + "\".");
+        }
+
+        /**
+         * Creates a prefetcher of this type.
+         *
+         * @param decoder Decoder for the block size of the cache it is attached to.
+         * @param distance How many blocks ahead of the access stream the stream prefetcher runs.
+         * @return The prefetcher, or null for NONE.
+         */
+        public Prefetcher create(AddressDecoder decoder, int distance) {
+            switch(this) {
+                case NEXTLINE:
+                    return new NextLinePrefetcher(decoder);
+                case IPSTRIDE:
+                    return new IpStridePrefetcher(decoder);
+                case STREAM:
+                    return new StreamPrefetcher(decoder, distance);
+                default:
+                    return null;
+            }
+        }
+    }
+}
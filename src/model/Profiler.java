@@ -0,0 +1,174 @@
+package model;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Attributes one CPU's misses, coherence invalidations and latency to the instructions responsible for them, by
+ * PC, and to the memory regions they touched. A region is 2^profile_region_bits bytes, a 4 KB page by default.
+ *
+ * An access misses if L1 doesn't serve it on its own, so it either hits L2 or goes on the bus; a write that needs
+ * a request for ownership counts as a miss that went on the bus. An instruction is charged an invalidation for
+ * every other CPU whose copy of a block its write invalidated, which is where coherence ping-pong shows up.
+ *
+ * Every CPU has its own profiler, so the parallel engine's workers never share one.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class Profiler {
+    // The counters kept for every PC and region.
+    public static final int ACCESSES = 0, MISSES = 1, BUS_REQUESTS = 2, INVALIDATIONS = 3, LATENCY = 4;
+    private static final String COLUMNS[] = {"Accesses", "Misses", "Bus Requests", "Invalidations", "Latency"};
+
+    private int regionBits;
+    private LongCounterTable pcs = new LongCounterTable(COLUMNS.length);
+    private LongCounterTable regions = new LongCounterTable(COLUMNS.length);
+
+    // The instruction being executed, and the address its invalidations are charged to.
+    private long pc;
+    private long address;
+
+    /**
+     * @param regionBits The log2 of the region size in bytes.
+     */
+    public Profiler(int regionBits) {
+        if(regionBits < 0 || regionBits > 63) {
+            throw new IllegalArgumentException("profile_region_bits must be between 0 and 63, but was "
+                    + regionBits + ".");
+        }
+        this.regionBits = regionBits;
+    }
+
+    /**
+     * Writes the per-PC and per-region counters to a checkpoint.
+     */
+    void save(CheckpointWriter output) throws IOException {
+        output.section("Profiler");
+        pcs.save(output);
+        regions.save(output);
+    }
+
+    /**
+     * Replaces the counters with those of a checkpoint written by save.
+     */
+    void restore(CheckpointReader input) throws IOException {
+        input.section("Profiler");
+        pcs.restore(input);
+        regions.restore(input);
+    }
+
+    /**
+     * Called when the CPU starts executing an instruction.
+     */
+    void begin(Instruction instruction) {
+        pc = instruction.instruction;
+        address = instruction.memoryAction == null ? instruction.instruction : instruction.data;
+    }
+
+    /**
+     * Records an instruction fetch or data access of the current instruction.
+     *
+     * @param address The address accessed.
+     * @param latency The latency of the access.
+     * @param level The level that served it (see CoreTiming).
+     */
+    void access(long address, int latency, int level) {
+        count(pcs, pcs.row(pc), latency, level);
+        count(regions, regions.row(address >>> regionBits), latency, level);
+    }
+
+    private static void count(LongCounterTable table, int row, int latency, int level) {
+        table.addAt(row, ACCESSES, 1);
+        table.addAt(row, LATENCY, latency);
+        if(level != CoreTiming.L1) table.addAt(row, MISSES, 1);
+        if(level == CoreTiming.BUS) table.addAt(row, BUS_REQUESTS, 1);
+    }
+
+    /**
+     * Records that the current instruction invalidated another CPU's copy of a block.
+     */
+    void invalidated() {
+        pcs.add(pc, INVALIDATIONS, 1);
+        regions.add(address >>> regionBits, INVALIDATIONS, 1);
+    }
+
+    public LongCounterTable getPcs() {
+        return pcs;
+    }
+
+    public LongCounterTable getRegions() {
+        return regions;
+    }
+
+    /**
+     * Prints, over all of the CPUs, the instructions and regions with the most misses and the most invalidations.
+     *
+     * @param top How many of each to print.
+     */
+    public static void report(PrintStream output, SystemBus system, int top) {
+        LongCounterTable pcs = new LongCounterTable(COLUMNS.length);
+        LongCounterTable regions = new LongCounterTable(COLUMNS.length);
+        int regionBits = 0;
+        for(int cpu = 1; cpu <= system.getCpuCount(); cpu++) {
+            Profiler profiler = system.getCPU(cpu).getProfiler();
+            pcs.addAll(profiler.pcs);
+            regions.addAll(profiler.regions);
+            regionBits = profiler.regionBits;
+        }
+
+        print(output, "Instructions by misses", "PC", pcs, MISSES, 0, top);
+        print(output, "Instructions by invalidations", "PC", pcs, INVALIDATIONS, 0, top);
+        print(output, "Regions by misses", "Region", regions, MISSES, regionBits, top);
+        print(output, "Regions by invalidations", "Region", regions, INVALIDATIONS, regionBits, top);
+    }
+
+    private static void print(PrintStream output, String title, String name, LongCounterTable table, int column,
+                              int shift, int top) {
+        output.println();
+        output.println(title + ":");
+
+        StringBuilder header = new StringBuilder(String.format("%-20s", name));
+        for(String counter : COLUMNS) {
+            header.append(String.format("%15s", counter));
+        }
+        output.println(header);
+
+        int rows[] = table.rowsByCounter(column);
+        for(int i = 0; i < Math.min(top, rows.length) && table.get(rows[i], column) > 0; i++) {
+            StringBuilder line = new StringBuilder(String.format("%-20s", hex(table.getKey(rows[i]) << shift)));
+            for(int counter = 0; counter < COLUMNS.length; counter++) {
+                line.append(String.format("%15d", table.get(rows[i], counter)));
+            }
+            output.println(line);
+        }
+    }
+
+    /**
+     * Writes the misses and invalidations of every instruction in the folded stack format that flame graph tools
+     * read: one "CPU;PC;event count" line per CPU, PC and kind of event, where the event is a miss served by L2, a
+     * bus request or an invalidation.
+     */
+    public static void writeFolded(PrintStream output, SystemBus system) {
+        for(int cpu = 1; cpu <= system.getCpuCount(); cpu++) {
+            LongCounterTable pcs = system.getCPU(cpu).getProfiler().pcs;
+            for(int row : pcs.rowsByCounter(MISSES)) {
+                String stack = "CPU #" + cpu + ";" + hex(pcs.getKey(row)) + ";";
+                long bus = pcs.get(row, BUS_REQUESTS);
+                folded(output, stack + "L2", pcs.get(row, MISSES) - bus);
+                folded(output, stack + "Bus", bus);
+                folded(output, stack + "Invalidations", pcs.get(row, INVALIDATIONS));
+            }
+        }
+    }
+
+    private static void folded(PrintStream output, String stack, long count) {
+        if(count > 0) {
+            output.println(stack + " " + count);
+        }
+    }
+
+    private static String hex(long address) {
+        return "0x" + Long.toHexString(address);
+    }
+}
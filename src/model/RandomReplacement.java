@@ -0,0 +1,44 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * Evicts a randomly chosen way.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class RandomReplacement implements ReplacementPolicy {
+    private int ways;
+    private RandomStream generator;
+
+    public RandomReplacement(int ways, RandomStream generator) {
+        this.ways = ways;
+        this.generator = generator;
+    }
+
+    @Override
+    public void touch(int set, int way) {
+    }
+
+    @Override
+    public void fill(int set, int way) {
+    }
+
+    @Override
+    public int victim(int set) {
+        return generator.nextInt(ways);
+    }
+
+    @Override
+    public void save(CheckpointWriter output) throws IOException {
+        output.section("Random");
+        output.putLong(generator.getState());
+    }
+
+    @Override
+    public void restore(CheckpointReader input) throws IOException {
+        input.section("Random");
+        generator.setState(input.getLong());
+    }
+}
@@ -0,0 +1,64 @@
+package model;
+
+/**
+ * A small, fast SplitMix64 random number generator.
+ * Unlike java.util.Random, its whole state is one long, and new independent streams can be split off of it
+ * deterministically, so every component can get its own stream derived from the configured seed.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class RandomStream {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+
+    public RandomStream(long seed) {
+        state = seed;
+    }
+
+    /**
+     * @return The next 64 random bits.
+     */
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix(state);
+    }
+
+    /**
+     * @param bound The upper bound (exclusive). Must be positive.
+     * @return A random number in [0, bound).
+     */
+    public int nextInt(int bound) {
+        return (int)(((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * @return A random number in [0, 1).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Creates a new stream seeded from this one. Streams split off in the same order from the same seed are
+     * always identical.
+     */
+    public RandomStream split() {
+        return new RandomStream(mix(nextLong()));
+    }
+
+    public long getState() {
+        return state;
+    }
+
+    public void setState(long state) {
+        this.state = state;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
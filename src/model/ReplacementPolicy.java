@@ -0,0 +1,84 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * Chooses which block of a full set an associative Cache evicts.
+ * Implementations keep their per-set bookkeeping in primitive arrays sized when the cache is built,
+ * so no objects are allocated while the simulation runs.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public interface ReplacementPolicy {
+    /**
+     * Called when a lookup hits the block in the passed way of a set.
+     */
+    void touch(int set, int way);
+
+    /**
+     * Called when a new block is placed into the passed way of a set.
+     */
+    void fill(int set, int way);
+
+    /**
+     * Picks the way to evict from a set in which every way holds a valid block.
+     *
+     * @return The way to replace.
+     */
+    int victim(int set);
+
+    /**
+     * Writes the policy's bookkeeping to a checkpoint.
+     */
+    void save(CheckpointWriter output) throws IOException;
+
+    /**
+     * Replaces the policy's bookkeeping with that of a checkpoint written by save.
+     */
+    void restore(CheckpointReader input) throws IOException;
+
+    enum Type {
+        RANDOM, LRU, PLRU, FIFO, SRRIP, BRRIP;
+
+        /**
+         * Parses the name of a policy as written in the configuration file.
+         *
+         * @throws IllegalArgumentException If the name isn't a known policy.
+         */
+        public static Type parse(String name) {
+            String normalized = name.trim().toUpperCase().replace("-", "").replace(" ", "");
+            if(normalized.equals("TREEPLRU")) {
+                return PLRU;
+            }
+            for(Type type : values()) {
+                if(type.name().equals(normalized)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown replacement policy \"" + name + "\".");
+        }
+
+        /**
+         * Creates a policy of this type for a cache with the passed geometry.
+         *
+         * @param generator Source of random numbers for the Random policy.
+         */
+        public ReplacementPolicy create(int sets, int ways, RandomStream generator) {
+            switch(this) {
+                case LRU:
+                    return new LruReplacement(sets, ways);
+                case PLRU:
+                    return new TreePlruReplacement(sets, ways);
+                case FIFO:
+                    return new FifoReplacement(sets, ways);
+                case SRRIP:
+                    return new SrripReplacement(sets, ways);
+                case BRRIP:
+                    return new BrripReplacement(sets, ways);
+                default:
+                    return new RandomReplacement(ways, generator);
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package model;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A shared resource, such as the bus or a memory channel, that serves one request at a time. Requests reserve it for
+ * a period of simulated time and wait for the first gap that is long enough.
+ *
+ * Each CPU keeps its own clock, so requests don't necessarily arrive in time order: a CPU that is behind can still
+ * use a gap before a reservation made by a CPU that is ahead. The resource therefore keeps a calendar of busy
+ * intervals rather than a single "free at" time. Intervals that end before every CPU's clock can no longer matter
+ * and are dropped with release(), so the calendar stays short; it is kept in a pair of sorted long arrays, and a
+ * request after the last interval, the usual case, is appended without a search.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class Resource {
+    // The busy intervals, sorted, disjoint and never touching: interval i is [starts[i], ends[i]) for i from head
+    // up to head + count. Released intervals are dropped from the front by moving head.
+    private long starts[] = new long[16];
+    private long ends[] = new long[16];
+    private int head = 0;
+    private int count = 0;
+
+    private long requests = 0;
+    private long busyTime = 0;
+    private long queueTime = 0;
+
+    /**
+     * Reserves the resource for the first free period of the passed length that starts no sooner than `earliest`.
+     *
+     * @return The time the reservation starts.
+     */
+    public long reserve(long earliest, long duration) {
+        requests++;
+        if(duration <= 0) {
+            return earliest;
+        }
+
+        long start = earliest;
+        int last = head + count - 1;
+        if(count == 0 || earliest >= ends[last]) {
+            // The usual case: the request comes after every reservation, so it starts at once.
+            if(count > 0 && ends[last] == start) {
+                ends[last] = start + duration;
+            } else {
+                insert(head + count, start, start + duration);
+            }
+        } else {
+            // Skip the intervals that end by `earliest`, then every interval the reservation would overlap.
+            int i = firstEndingAfter(earliest);
+            int tail = head + count;
+            while(i < tail && starts[i] < start + duration) {
+                start = ends[i];
+                i++;
+            }
+
+            // Add the interval before interval i, merging it with its neighbours if they touch.
+            long end = start + duration;
+            boolean before = i > head && ends[i - 1] == start;
+            boolean after = i < tail && starts[i] == end;
+            if(before && after) {
+                ends[i - 1] = ends[i];
+                remove(i);
+            } else if(before) {
+                ends[i - 1] = end;
+            } else if(after) {
+                starts[i] = start;
+            } else {
+                insert(i, start, end);
+            }
+        }
+
+        busyTime += duration;
+        queueTime += start - earliest;
+        return start;
+    }
+
+    /**
+     * @return The index of the first interval that ends after the passed time. There must be one.
+     */
+    private int firstEndingAfter(long time) {
+        int low = head;
+        int high = head + count - 1;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(ends[middle] > time) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    private void insert(int index, long start, long end) {
+        if(head + count == starts.length) {
+            if(head > 0) {
+                // Move the intervals to the front of the arrays to make room at the back.
+                System.arraycopy(starts, head, starts, 0, count);
+                System.arraycopy(ends, head, ends, 0, count);
+                index -= head;
+                head = 0;
+            } else {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+                ends = Arrays.copyOf(ends, ends.length * 2);
+            }
+        }
+        int tail = head + count;
+        System.arraycopy(starts, index, starts, index + 1, tail - index);
+        System.arraycopy(ends, index, ends, index + 1, tail - index);
+        starts[index] = start;
+        ends[index] = end;
+        count++;
+    }
+
+    private void remove(int index) {
+        int tail = head + count;
+        System.arraycopy(starts, index + 1, starts, index, tail - index - 1);
+        System.arraycopy(ends, index + 1, ends, index, tail - index - 1);
+        count--;
+    }
+
+    /**
+     * Forgets the busy intervals that end by the passed time. No later request may start before it.
+     */
+    public void release(long time) {
+        while(count > 0 && ends[head] <= time) {
+            head++;
+            count--;
+        }
+        if(count == 0) {
+            head = 0;
+        }
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return The total time the resource has been reserved for.
+     */
+    public long getBusyTime() {
+        return busyTime;
+    }
+
+    /**
+     * @return The total time requests have waited for the resource.
+     */
+    public long getQueueTime() {
+        return queueTime;
+    }
+
+    /**
+     * Writes the calendar of busy intervals and the counters to a checkpoint.
+     */
+    void save(CheckpointWriter output) throws IOException {
+        output.section("Resource");
+        output.putLong(requests);
+        output.putLong(busyTime);
+        output.putLong(queueTime);
+        output.putInt(count);
+        for(int i = head; i < head + count; i++) {
+            output.putLong(starts[i]);
+            output.putLong(ends[i]);
+        }
+    }
+
+    /**
+     * Replaces the calendar and counters with those of a checkpoint written by save.
+     */
+    void restore(CheckpointReader input) throws IOException {
+        input.section("Resource");
+        requests = input.getLong();
+        busyTime = input.getLong();
+        queueTime = input.getLong();
+        head = 0;
+        count = 0;
+        for(int i = input.getInt(); i > 0; i--) {
+            long start = input.getLong();
+            insert(count, start, input.getLong());
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package model;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which parts of a trace are simulated in detail when sampling, and estimates the statistics of the whole
+ * trace from them, in the style of SMARTS (Wunderlich et al., 2003).
+ *
+ * Every sample_period rounds of the replay, starting at a random offset, a sampling unit of sample_size rounds is
+ * measured. It is preceded by sample_warmup rounds of detailed simulation, which fill the timing model's queues
+ * but aren't measured, and before that by functional warming (see CPU.warm), which keeps the caches' contents up
+ * to date without the cost of the timing model. With sample_warming at -1 every other round is run for functional
+ * warming; otherwise only that many rounds before each unit are, and the rest of the trace is skipped.
+ *
+ * The statistics of a unit are the differences between the system's statistics at its start and end, so the
+ * totals over all of the units can be printed like those of a full run. The latency histograms likewise only keep
+ * the accesses of complete units. For the main ratios the mean over the units is reported with a 95% confidence
+ * interval.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class Sampler {
+    public enum Phase {
+        /**
+         * The round isn't simulated at all.
+         */
+        SKIP,
+        /**
+         * The round only updates the caches.
+         */
+        WARM,
+        /**
+         * The round is simulated in detail, but not measured.
+         */
+        WARMUP,
+        /**
+         * The round is simulated in detail and measured.
+         */
+        MEASURE
+    }
+
+    private static final double Z = 1.96;  // Standard normal quantile for a 95% confidence interval.
+
+    // The ratios reported with confidence intervals, and the statistics they are computed from.
+    private static final String METRICS[] = {"Time per instruction (ns)", "Simulated time per round (ns)",
+            "L1 miss rate", "L2 miss rate", "L3 miss rate"};
+
+    private SystemBus system;
+    private long period;
+    private long size;
+    private long warmup;
+    private long warming;
+    private long offset;
+
+    private boolean measuring = false;
+    private Map<String, Long> start;     // The statistics at the start of the current unit.
+    private long startChanges[][];
+    private Map<String, Long> totals = new LinkedHashMap<>();
+    private long stateChanges[][];
+    private int units = 0;
+    private long rounds = 0;                // Trace records, which each CPU executes once.
+
+    // Per metric: the number of units it was defined for, and the sum and sum of squares of its values.
+    private long counts[] = new long[METRICS.length];
+    private double sums[] = new double[METRICS.length];
+    private double squares[] = new double[METRICS.length];
+
+    /**
+     * @param config The system configuration.
+     * @param system The system being sampled.
+     */
+    public Sampler(Map<String, Integer> config, SystemBus system) {
+        period = config.getOrDefault("sample_period", 0);
+        size = config.getOrDefault("sample_size", 1000);
+        warmup = config.getOrDefault("sample_warmup", 2000);
+        warming = config.getOrDefault("sample_warming", -1);
+
+        if(size < 1) {
+            throw new IllegalArgumentException("sample_size must be at least 1, but was " + size + ".");
+        }
+        if(warmup < 0) {
+            throw new IllegalArgumentException("sample_warmup must not be negative, but was " + warmup + ".");
+        }
+        if(period < size + warmup) {
+            throw new IllegalArgumentException("sample_period must be at least sample_size + sample_warmup ("
+                    + (size + warmup) + "), but was " + period + ".");
+        }
+
+        this.system = system;
+        offset = (long)(system.newRandomStream().nextDouble() * period);
+
+        int n = system.getProtocol().getStates().length;
+        stateChanges = new long[n][n];
+        for(LatencyRecorder latencies : latencies()) {
+            latencies.sample();
+        }
+    }
+
+    /**
+     * @return True if the configuration asks for sampled simulation.
+     */
+    public static boolean isEnabled(Map<String, Integer> config) {
+        return config.getOrDefault("sample_period", 0) > 0;
+    }
+
+    /**
+     * Called by the replay at the start of every round, in order. Starts and ends the sampling units.
+     *
+     * @param round The round, counting from 0.
+     * @return What to do with the round.
+     */
+    Phase phase(long round) {
+        long position = Math.floorMod(round - offset, period);
+        if(measuring && (position == 0 || position >= size)) {
+            endUnit();
+        }
+
+        if(position < size) {
+            if(!measuring) {
+                start = system.gatherStatistics();
+                startChanges = system.getStateChanges();
+                measuring = true;
+                for(LatencyRecorder latencies : latencies()) {
+                    latencies.beginUnit();
+                }
+            }
+            return Phase.MEASURE;
+        }
+
+        long next = period - position;     // Rounds until the next unit.
+        if(next <= warmup) {
+            return Phase.WARMUP;
+        }
+        return warming < 0 || next <= warmup + warming ? Phase.WARM : Phase.SKIP;
+    }
+
+    private void endUnit() {
+        measuring = false;
+        units++;
+        for(LatencyRecorder latencies : latencies()) {
+            latencies.endUnit();
+        }
+
+        Map<String, Long> unit = Metrics.difference(system.gatherStatistics(), start);
+        for(Map.Entry<String, Long> entry : unit.entrySet()) {
+            totals.merge(entry.getKey(), entry.getValue(), Metrics.isLevel(entry.getKey()) ? (a, b) -> b : Long::sum);
+        }
+
+        long changes[][] = system.getStateChanges();
+        for(int from = 0; from < changes.length; from++) {
+            for(int to = 0; to < changes.length; to++) {
+                stateChanges[from][to] += changes[from][to] - startChanges[from][to];
+            }
+        }
+
+        double values[] = metrics(unit);
+        for(int i = 0; i < values.length; i++) {
+            if(Double.isNaN(values[i])) continue;
+            counts[i]++;
+            sums[i] += values[i];
+            squares[i] += values[i] * values[i];
+        }
+    }
+
+    /**
+     * @return The CPUs' latency recorders, which are empty if latency histograms are off.
+     */
+    private List<LatencyRecorder> latencies() {
+        List<LatencyRecorder> recorders = new ArrayList<>();
+        for(int cpu = 1; cpu <= system.getCpuCount(); cpu++) {
+            LatencyRecorder latencies = system.getCPU(cpu).getLatencies();
+            if(latencies != null) recorders.add(latencies);
+        }
+        return recorders;
+    }
+
+    /**
+     * @return The METRICS of a unit's statistics, or NaN where a metric isn't defined.
+     */
+    private static double[] metrics(Map<String, Long> stats) {
+        long cpus = stats.get("CPU Count");
+        long instructions = 0, l1Accesses = 0, l1Misses = 0, l2Accesses = 0, l2Misses = 0;
+        for(int cpu = 1; cpu <= cpus; cpu++) {
+            String name = "CPU #" + cpu;
+            instructions += stats.get(name + " Instruction Count");
+            l1Accesses += stats.get(name + " L1i Accesses") + stats.get(name + " L1d Accesses");
+            l1Misses += stats.get(name + " L1i Misses") + stats.get(name + " L1d Misses");
+            l2Accesses += stats.get(name + " L2 Accesses");
+            l2Misses += stats.get(name + " L2 Misses");
+        }
+
+        return new double[] {
+                ratio(stats.get("Running Time"), instructions),
+                stats.containsKey("Simulated Time")
+                        ? ratio(stats.get("Simulated Time"), stats.get("CPU #1 Instruction Count")) : Double.NaN,
+                ratio(l1Misses, l1Accesses),
+                ratio(l2Misses, l2Accesses),
+                ratio(stats.get("L3 Misses"), stats.get("L3 Accesses"))
+        };
+    }
+
+    private static double ratio(long numerator, long denominator) {
+        return denominator == 0 ? Double.NaN : (double)numerator / denominator;
+    }
+
+    /**
+     * Called by the replay once the trace has ended. A unit the trace ended in the middle of is dropped.
+     *
+     * @param records The number of records in the trace.
+     * @throws IllegalArgumentException If the trace was too short to measure a single unit.
+     */
+    void finish(long records) {
+        measuring = false;
+        rounds = records;
+        if(units == 0) {
+            throw new IllegalArgumentException("The trace has " + records + " records, too few to measure a "
+                    + "sample unit of " + size + " every " + period + ".");
+        }
+    }
+
+    /**
+     * @return The sums of the measured units' statistics.
+     */
+    public Map<String, Long> getStatistics() {
+        return totals;
+    }
+
+    /**
+     * @return The measured units' state changes, like SystemBus.getStateChanges.
+     */
+    public long[][] getStateChanges() {
+        return stateChanges;
+    }
+
+    public int getUnits() {
+        return units;
+    }
+
+    /**
+     * Prints how much of the trace was measured, the mean and confidence interval of every metric, and the
+     * estimated totals of the whole trace.
+     */
+    public void report(PrintStream output) {
+        int cpus = system.getCpuCount();
+        long measured = (long)units * size;
+        output.println();
+        output.println("Sampling: " + units + " units of " + size + " rounds every " + period + ", after "
+                + warmup + " rounds of detailed warm-up and "
+                + (warming < 0 ? "continuous" : warming + " rounds of") + " functional warming");
+        output.println("Measured rounds: " + measured + " of " + rounds + " ("
+                + (rounds == 0 ? 0 : 100.0 * measured / rounds) + "%)");
+
+        double means[] = new double[METRICS.length];
+        double errors[] = new double[METRICS.length];
+        for(int i = 0; i < METRICS.length; i++) {
+            if(counts[i] == 0) continue;
+
+            long n = counts[i];
+            means[i] = sums[i] / n;
+            double variance = n < 2 ? 0 : Math.max(0, (squares[i] - n * means[i] * means[i]) / (n - 1));
+            errors[i] = Z * Math.sqrt(variance / n);
+            output.println(METRICS[i] + ": " + means[i] + " +/- " + errors[i] + " ("
+                    + (means[i] == 0 ? 0 : 100 * errors[i] / means[i]) + "%) at 95% confidence");
+        }
+
+        output.println("Estimated total time: " + means[0] * rounds * cpus + " +/- " + errors[0] * rounds * cpus
+                + " ns");
+        if(counts[1] > 0) {
+            output.println("Estimated simulated time: " + means[1] * rounds + " +/- " + errors[1] * rounds + " ns");
+        }
+    }
+}
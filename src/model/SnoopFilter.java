@@ -0,0 +1,230 @@
+package model;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * An inclusive snoop filter: a set-associative directory, keyed by block address, of which CPUs may hold a block in
+ * their private caches and the coherence state the bus last granted for it. The bus only probes the CPUs the filter
+ * lists instead of broadcasting to all of them.
+ *
+ * The filter never forgets a block that is still cached somewhere. When a set is full, the least recently used
+ * entry is evicted and the block is back-invalidated in every CPU that holds it.
+ *
+ * Note that a CPU can silently upgrade an Exclusive block to Modified, so an Exclusive entry means "owned by a
+ * single CPU, possibly dirty".
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class SnoopFilter {
+    private static final CacheLine.State STATES[] = CacheLine.State.values();
+
+    private AddressDecoder decoder;
+    private int associativity;
+    private ReplacementPolicy replacement;
+
+    private long tags[];
+    private long sharers[];     // Bit (n - 1) is set if CPU n may hold the block.
+    private byte states[];      // State ordinal; Invalid marks a free entry.
+
+    private SystemBus system;
+
+    private int occupancy = 0;
+    private long evictions = 0;
+    private long backInvalidations = 0;
+    private long probesSkipped = 0;
+
+    /**
+     * @param entries Total number of blocks the filter can track.
+     * @param associativity Number of entries per set.
+     * @param system The bus to send back-invalidations to.
+     */
+    public SnoopFilter(int entries, int associativity, SystemBus system) {
+        if(!AddressDecoder.isPowerOfTwo(associativity) || associativity > entries) {
+            throw new IllegalArgumentException("snoop_filter_associativity must be a power of two no larger than "
+                    + "snoop_filter_entries (" + entries + "), but was " + associativity + ".");
+        }
+
+        decoder = new AddressDecoder(1, entries / associativity);
+        this.associativity = associativity;
+        replacement = new LruReplacement(decoder.getSets(), associativity);
+
+        tags = new long[entries];
+        sharers = new long[entries];
+        states = new byte[entries];
+        Arrays.fill(states, (byte)CacheLine.State.Invalid.ordinal());
+
+        this.system = system;
+    }
+
+    public int getOccupancy() {
+        return occupancy;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getBackInvalidations() {
+        return backInvalidations;
+    }
+
+    public long getProbesSkipped() {
+        return probesSkipped;
+    }
+
+    /**
+     * Called by the bus every time it skips probing a CPU because of the filter.
+     */
+    public void countProbeSkipped() {
+        probesSkipped++;
+    }
+
+    /**
+     * Called by the bus with the number of private cache lines invalidated because an entry was evicted.
+     */
+    void countBackInvalidations(int lines) {
+        backInvalidations += lines;
+    }
+
+    /**
+     * @param block The block address.
+     * @return A mask with bit (n - 1) set for every CPU n that may hold the block.
+     */
+    public long getSharers(long block) {
+        int index = find(block);
+        return index == -1 ? 0 : sharers[index];
+    }
+
+    /**
+     * @param block The block address.
+     * @return The state the bus last granted for the block, or Invalid if no CPU holds it.
+     */
+    public CacheLine.State getState(long block) {
+        int index = find(block);
+        return index == -1 ? CacheLine.State.Invalid : STATES[states[index]];
+    }
+
+    /**
+     * Records the state the bus granted for a block that is being tracked.
+     */
+    public void setState(long block, CacheLine.State state) {
+        int index = find(block);
+        if(index != -1 && state != CacheLine.State.Invalid) {
+            states[index] = (byte)state.ordinal();
+        }
+    }
+
+    /**
+     * Records that a CPU now holds the block, allocating an entry for it if necessary.
+     *
+     * @param block The block address.
+     * @param cpu The number of the CPU, starting at 1.
+     */
+    public void addSharer(long block, int cpu) {
+        int index = find(block);
+        if(index == -1) {
+            index = allocate(block);
+        } else {
+            replacement.touch(decoder.set(block), index % associativity);
+        }
+        sharers[index] |= 1L << (cpu - 1);
+    }
+
+    /**
+     * Records that a CPU no longer holds the block in any of its private caches.
+     *
+     * @param block The block address.
+     * @param cpu The number of the CPU, starting at 1.
+     */
+    public void removeSharer(long block, int cpu) {
+        int index = find(block);
+        if(index == -1) {
+            return;
+        }
+
+        sharers[index] &= ~(1L << (cpu - 1));
+        if(sharers[index] == 0) {
+            states[index] = (byte)CacheLine.State.Invalid.ordinal();
+            occupancy--;
+        }
+    }
+
+    private int find(long block) {
+        int first = decoder.set(block) * associativity;
+        long tag = decoder.tag(block);
+        for(int i = 0; i < associativity; i++) {
+            if(tags[first + i] == tag && states[first + i] != CacheLine.State.Invalid.ordinal()) {
+                return first + i;
+            }
+        }
+        return -1;
+    }
+
+    private int allocate(long block) {
+        int set = decoder.set(block);
+        int first = set * associativity;
+
+        int way = -1;
+        for(int i = 0; i < associativity; i++) {
+            if(states[first + i] == CacheLine.State.Invalid.ordinal()) {
+                way = i;
+                break;
+            }
+        }
+
+        if(way == -1) {
+            way = replacement.victim(set);
+            long victim = decoder.address(tags[first + way], set);
+            long victimSharers = sharers[first + way];
+
+            // Free the entry before invalidating, so the invalidations don't find it again.
+            states[first + way] = (byte)CacheLine.State.Invalid.ordinal();
+            sharers[first + way] = 0;
+            occupancy--;
+            evictions++;
+            system.backInvalidate(victim, victimSharers);
+        }
+
+        int index = first + way;
+        tags[index] = decoder.tag(block);
+        sharers[index] = 0;
+        states[index] = (byte)CacheLine.State.Exclusive.ordinal();
+        occupancy++;
+        replacement.fill(set, way);
+        return index;
+    }
+
+    /**
+     * Writes the filter's entries, replacement state and counters to a checkpoint.
+     */
+    void save(CheckpointWriter output) throws IOException {
+        output.section("Snoop Filter");
+        output.putLongs(tags);
+        output.putLongs(sharers);
+        output.putBytes(states);
+        replacement.save(output);
+        output.putInt(occupancy);
+        output.putLong(evictions);
+        output.putLong(backInvalidations);
+        output.putLong(probesSkipped);
+    }
+
+    /**
+     * Replaces the filter's state with that of a checkpoint written by save.
+     *
+     * @throws IllegalArgumentException If the checkpoint is of a filter of a different size.
+     */
+    void restore(CheckpointReader input) throws IOException {
+        input.section("Snoop Filter");
+        input.getLongs(tags);
+        input.getLongs(sharers);
+        input.getBytes(states);
+        replacement.restore(input);
+        occupancy = input.getInt();
+        evictions = input.getLong();
+        backInvalidations = input.getLong();
+        probesSkipped = input.getLong();
+    }
+}
@@ -0,0 +1,62 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * Static re-reference interval prediction (SRRIP) with 2-bit prediction values.
+ * Hits predict a near re-reference, new blocks are inserted with a long one, and the victim is a block
+ * predicted to be re-referenced in the distant future.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class SrripReplacement implements ReplacementPolicy {
+    protected static final byte DISTANT = 3;
+    protected static final byte LONG = DISTANT - 1;
+
+    protected int ways;
+    protected byte rrpv[];
+
+    public SrripReplacement(int sets, int ways) {
+        this.ways = ways;
+        rrpv = new byte[sets * ways];
+    }
+
+    @Override
+    public void touch(int set, int way) {
+        rrpv[set * ways + way] = 0;
+    }
+
+    @Override
+    public void fill(int set, int way) {
+        rrpv[set * ways + way] = LONG;
+    }
+
+    @Override
+    public int victim(int set) {
+        int first = set * ways;
+        while(true) {
+            for(int i = 0; i < ways; i++) {
+                if(rrpv[first + i] == DISTANT) {
+                    return i;
+                }
+            }
+            // No block is predicted distant yet, so age the whole set and look again.
+            for(int i = 0; i < ways; i++) {
+                rrpv[first + i]++;
+            }
+        }
+    }
+
+    @Override
+    public void save(CheckpointWriter output) throws IOException {
+        output.section("RRIP");
+        output.putBytes(rrpv);
+    }
+
+    @Override
+    public void restore(CheckpointReader input) throws IOException {
+        input.section("RRIP");
+        input.getBytes(rrpv);
+    }
+}
@@ -0,0 +1,218 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Finds the LRU stack distance of every access in one pass over a stream of addresses, which gives the misses of
+ * an LRU cache of every size at once: an access hits a fully associative LRU cache of C blocks exactly when fewer
+ * than C other blocks were touched since the last access to its block (Mattson et al., 1970).
+ *
+ * Fully associative distances use a Fenwick tree over access times (Bennett and Kruskal, 1975). The time of each
+ * block's last access is marked, so the distance of an access is the number of marks after the previous access to
+ * its block, which takes O(log n) to count. When the times run out the marks are renumbered in order, so the tree
+ * only ever needs to be about twice the number of distinct blocks.
+ *
+ * Set-associative caches are modeled with an LRU stack per set, as deep as the largest associativity asked for, for
+ * every power of two number of sets up to maxSets. The position of a block in its set's stack is its distance in
+ * a cache with that many sets.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class StackDistanceAnalyzer {
+    private int offsetBits;
+
+    private long accesses = 0;
+    private long coldMisses = 0;
+
+    // Fully associative.
+    private LongCounterTable last = new LongCounterTable(1);  // The time of each block's last access.
+    private int tree[];                 // Fenwick tree of the marks, over times 1 to tree.length - 1.
+    private boolean marked[];
+    private int time = 0;               // The time of the last access.
+    private int distinct = 0;           // The number of blocks seen, which is also the number of marks.
+    private long distances[] = new long[64];    // How many accesses had each distance.
+
+    // Set-associative.
+    private int ways;
+    private long stacks[][];            // Per power of two sets: each set's stack of block + 1, or 0 if empty.
+    private long positions[][];         // Per power of two sets: how many accesses hit each stack position, and
+                                        // missed in the last element.
+
+    /**
+     * @param blockSize The block size in bytes, a power of two.
+     * @param maxSets The largest number of sets to model set-associative caches for, a power of two.
+     * @param ways The largest associativity to model.
+     */
+    public StackDistanceAnalyzer(int blockSize, int maxSets, int ways) {
+        if(!AddressDecoder.isPowerOfTwo(maxSets)) {
+            throw new IllegalArgumentException("The number of sets must be a power of two, but was " + maxSets
+                    + ".");
+        }
+        if(ways < 1) {
+            throw new IllegalArgumentException("The associativity must be at least 1, but was " + ways + ".");
+        }
+
+        offsetBits = AddressDecoder.log2(blockSize, "block_size");
+        this.ways = ways;
+
+        int levels = Integer.numberOfTrailingZeros(maxSets) + 1;
+        stacks = new long[levels][];
+        positions = new long[levels][ways + 1];
+        for(int level = 0; level < levels; level++) {
+            stacks[level] = new long[(1 << level) * ways];
+        }
+
+        tree = new int[1024];
+        marked = new boolean[1024];
+    }
+
+    /**
+     * Records an access to the passed address.
+     */
+    public void access(long address) {
+        long block = address >>> offsetBits;
+        accesses++;
+
+        fullyAssociative(block);
+        for(int level = 0; level < stacks.length; level++) {
+            setAssociative(level, block);
+        }
+    }
+
+    private void fullyAssociative(long block) {
+        if(time + 1 == tree.length) {
+            renumber();
+        }
+        time++;
+
+        int row = last.row(block);
+        int previous = (int)last.get(row, 0);
+        if(previous == 0) {
+            coldMisses++;
+            distinct++;
+        } else {
+            // Every block touched since the previous access has exactly one mark after it.
+            int distance = distinct - prefix(previous);
+            if(distance >= distances.length) {
+                distances = Arrays.copyOf(distances, Math.max(distance + 1, distances.length * 2));
+            }
+            distances[distance]++;
+            update(previous, -1);
+        }
+        update(time, 1);
+        last.setAt(row, 0, time);
+    }
+
+    private void setAssociative(int level, long block) {
+        long stack[] = stacks[level];
+        int first = (int)(block & ((1 << level) - 1)) * ways;
+        long entry = block + 1;
+
+        int position = 0;
+        while(position < ways && stack[first + position] != entry) {
+            position++;
+        }
+        positions[level][position]++;
+
+        // Move the block to the top of the stack, dropping the bottom one on a miss.
+        System.arraycopy(stack, first, stack, first + 1, Math.min(position, ways - 1));
+        stack[first] = entry;
+    }
+
+    /**
+     * @return The number of marks at times 1 to index.
+     */
+    private int prefix(int index) {
+        int sum = 0;
+        for(; index > 0; index -= index & -index) {
+            sum += tree[index];
+        }
+        return sum;
+    }
+
+    private void update(int index, int delta) {
+        marked[index] = delta > 0;
+        for(; index < tree.length; index += index & -index) {
+            tree[index] += delta;
+        }
+    }
+
+    /**
+     * Renumbers the marked times 1 to distinct, keeping their order, in a tree with room for as many new accesses.
+     */
+    private void renumber() {
+        int renumbered[] = new int[time + 1];
+        int next = 0;
+        for(int i = 1; i <= time; i++) {
+            if(marked[i]) renumbered[i] = ++next;
+        }
+        for(int row = 0; row < last.getRowCount(); row++) {
+            if(last.isUsed(row)) {
+                last.setAt(row, 0, renumbered[(int)last.get(row, 0)]);
+            }
+        }
+
+        int size = (int)Math.min(Integer.MAX_VALUE - 8, Math.max(1024, 2L * distinct + 1));
+        if(size <= distinct + 1) {
+            throw new IllegalStateException("Too many distinct blocks to analyze.");
+        }
+        tree = new int[size];
+        marked = new boolean[size];
+        for(int i = 1; i < size; i++) {
+            if(i <= distinct) {
+                marked[i] = true;
+                tree[i]++;
+            }
+            int parent = i + (i & -i);
+            if(parent < size) tree[parent] += tree[i];
+        }
+        time = distinct;
+    }
+
+    public long getAccesses() {
+        return accesses;
+    }
+
+    /**
+     * @return How many accesses were the first to their block.
+     */
+    public long getColdMisses() {
+        return coldMisses;
+    }
+
+    /**
+     * @return How many different blocks were accessed.
+     */
+    public long getDistinctBlocks() {
+        return distinct;
+    }
+
+    /**
+     * @return The misses of a fully associative LRU cache of the passed number of blocks.
+     */
+    public long getMisses(long blocks) {
+        long misses = coldMisses;
+        for(long distance = Math.max(blocks, 0); distance < distances.length; distance++) {
+            misses += distances[(int)distance];
+        }
+        return misses;
+    }
+
+    /**
+     * @return The misses of an LRU cache with the passed number of sets and ways.
+     * @throws IllegalArgumentException If the geometry is larger than the analyzer models.
+     */
+    public long getMisses(int sets, int ways) {
+        int level = Integer.numberOfTrailingZeros(sets);
+        if(!AddressDecoder.isPowerOfTwo(sets) || level >= stacks.length || ways < 1 || ways > this.ways) {
+            throw new IllegalArgumentException("No stacks were kept for " + sets + " sets of " + ways + " ways.");
+        }
+
+        long misses = 0;
+        for(int position = ways; position <= this.ways; position++) {
+            misses += positions[level][position];
+        }
+        return misses;
+    }
+}
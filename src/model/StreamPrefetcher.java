@@ -0,0 +1,112 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * Detects streams of misses moving through memory in one direction, and runs ahead of each confirmed stream by a
+ * fixed distance. A stream is confirmed once two accesses in a row have moved it the same way.
+ *
+ * Streams are trained by misses and by the first use of prefetched blocks, since once a stream is prefetched well
+ * its accesses stop missing. Up to 16 streams are tracked at once, replacing the least recently used.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class StreamPrefetcher implements Prefetcher {
+    private static final int STREAMS = 16;
+    private static final int WINDOW = 4;    // How far, in blocks, an access may be from a stream to belong to it.
+
+    private AddressDecoder decoder;
+    private int distance;
+
+    private long lastBlocks[] = new long[STREAMS];
+    private int directions[] = new int[STREAMS];
+    private int confidence[] = new int[STREAMS];
+    private long lastUsed[] = new long[STREAMS];
+    private long clock = 0;
+
+    /**
+     * @param distance How many blocks ahead of the stream to prefetch.
+     */
+    public StreamPrefetcher(AddressDecoder decoder, int distance) {
+        if(distance < 1) {
+            throw new IllegalArgumentException("prefetch_distance must be at least 1, but was " + distance + ".");
+        }
+        this.decoder = decoder;
+        this.distance = distance;
+        for(int i = 0; i < STREAMS; i++) {
+            lastBlocks[i] = Long.MIN_VALUE / 2;
+        }
+    }
+
+    @Override
+    public int access(long pc, long address, boolean hit, boolean prefetched, long requests[]) {
+        if(hit && !prefetched) {
+            return 0;
+        }
+        clock++;
+
+        long block = decoder.block(address);
+        int stream = -1;
+        int oldest = 0;
+        for(int i = 0; i < STREAMS; i++) {
+            long offset = block - lastBlocks[i];
+            if(Math.abs(offset) <= WINDOW) {
+                stream = i;
+                break;
+            }
+            if(lastUsed[i] < lastUsed[oldest]) {
+                oldest = i;
+            }
+        }
+
+        if(stream == -1) {
+            lastBlocks[oldest] = block;
+            directions[oldest] = 0;
+            confidence[oldest] = 0;
+            lastUsed[oldest] = clock;
+            return 0;
+        }
+
+        if(block == lastBlocks[stream]) {
+            return 0;
+        }
+        int direction = block > lastBlocks[stream] ? 1 : -1;
+        if(direction == directions[stream]) {
+            confidence[stream]++;
+        } else {
+            directions[stream] = direction;
+            confidence[stream] = 1;
+        }
+        lastBlocks[stream] = block;
+        lastUsed[stream] = clock;
+
+        if(confidence[stream] < 2) {
+            return 0;
+        }
+        for(int i = 0; i < requests.length; i++) {
+            requests[i] = (block + direction * (long)(distance + i)) << decoder.getOffsetBits();
+        }
+        return requests.length;
+    }
+
+    @Override
+    public void save(CheckpointWriter output) throws IOException {
+        output.section("Stream");
+        output.putLong(clock);
+        output.putLongs(lastBlocks);
+        output.putInts(directions);
+        output.putInts(confidence);
+        output.putLongs(lastUsed);
+    }
+
+    @Override
+    public void restore(CheckpointReader input) throws IOException {
+        input.section("Stream");
+        clock = input.getLong();
+        input.getLongs(lastBlocks);
+        input.getInts(directions);
+        input.getInts(confidence);
+        input.getLongs(lastUsed);
+    }
+}
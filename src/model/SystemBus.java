@@ -1,8 +1,16 @@
 package model;
 
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.LinkedHashMap;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * SystemBus class that holds all of the CPUs and memories, and responds to requests made by the system components.
@@ -21,26 +29,140 @@ public class SystemBus {
      */
     public PrintStream debuggingOutput = System.out;
 
-    private CPU cpu1;
-    private CPU cpu2;
-    private Cache l3;
+    private CPU cpus[];
+    private Cache l3Slices[];           // The block at an address is in l3Slices[slice(address)].
+    private int sliceMask;
+    private int sliceBits;
     private Memory lm1;
     private Memory lm2;
     private WriteScheme write;
+    private SnoopFilter snoopFilter;    // Null if every request is broadcast to all CPUs.
+    private WriteBuffer writeBuffer;    // Null if writebacks go straight to memory.
+    private long bufferedWrites = 0;    // Memory writes the write buffer drains in the background.
+    private CPU executing;              // The CPU executing the current instruction.
+    private boolean warming = false;    // True while the current instruction is only warming the caches.
+    private LatencyRecorder.Level served;   // Where the last read or write request found its block.
+    private LongAdder writebacks = new LongAdder();
+
+    // Inclusion of L1 in L2 and of the private caches in L3.
+    private Inclusion l2Inclusion;
+    private Inclusion l3Inclusion;
+    private LongAdder l2InclusionEvents[];  // Per CPU: back-invalidations if inclusive, or evictions of blocks still
+                                            // in L1.
+    private LongAdder l3InclusionEvents = new LongAdder();  // The same for L3 and the private caches.
+    private LongAdder victimFills = new LongAdder();
+    private LongAdder exclusiveMoves = new LongAdder();
+    private long victims[] = new long[4];   // Blocks waiting to be moved into an exclusive L3.
+    private boolean victimsDirty[] = new boolean[4];
+    private int victimCount = 0;
+
+    // Caches with the same geometry share one decoder.
+    private AddressDecoder l1Decoder;
+    private AddressDecoder l2Decoder;
+    private AddressDecoder l3Decoder;
+
+    // Every cache gets its own random stream split off of this one, in the order the caches are built.
+    private RandomStream seeds;
+
+    private CoherenceProtocol protocol;
+    private LongAdder coherenceWritebacks = new LongAdder();    // Write backs the protocol needed to hand a
+                                                                // modified block to another CPU.
 
     /**
      * Row: The starting state
      * Column: The ending state
-     * Order: Modified, Exclusive, Shared, Invalid
+     * Order: The protocol's states
      */
-    private int stateChanges[][];
-    private int runningTime = 0;
+    private long stateChanges[][];
+    private LongAdder runningTime = new LongAdder();
+    private LongAdder busTransactions = new LongAdder();    // Read, write and ownership requests on the bus.
+
+    private Metrics metrics = new Metrics();
+    private IntervalExporter intervals;     // Null if no interval statistics are written.
+
+    // Checkpoints.
+    private Path checkpointFile;        // Where the replay saves checkpoints, or null if it doesn't.
+    private long checkpointInterval;    // Rounds between checkpoints.
+    private boolean checkpointExit;     // True if the replay stops after its first checkpoint.
+    private long start = 0;             // The round the replay starts at, after a checkpoint was restored.
+
+    // Occupancy of the bus and the memory channel, used by the CPUs' timing models.
+    private Resource busChannel = new Resource();
+    private Resource memoryChannel = new Resource();
+    private Resource l3Ports[];         // Per L3 slice.
+    private int busOccupancy;
+    private int memoryOccupancy;
+    private int l3Occupancy;
+    private boolean timed;
 
+    /**
+     * @param config The system configuration.
+     * @throws IllegalArgumentException If the cache geometry in the configuration is invalid.
+     */
     public SystemBus(Map<String, Integer> config) {
-        cpu1 = new CPU(config, this);
-        cpu2 = new CPU(config, this);
-        l3 = new Cache(config.get("l3_blocks"), config.get("block_size"), config.get("associativity"),
-                config.get("l3_latency"), this);
+        l1Decoder = decoder(config, "l1_blocks");
+        l2Decoder = decoder(config, "l2_blocks");
+        decoder(config, "l3_blocks");
+        int slices = config.getOrDefault("l3_slices", 1);
+        if(!AddressDecoder.isPowerOfTwo(slices)
+                || (long)slices * config.get("associativity") > config.get("l3_blocks")) {
+            throw new IllegalArgumentException("l3_slices must be a power of two no larger than l3_blocks / "
+                    + "associativity, but was " + slices + ".");
+        }
+        sliceMask = slices - 1;
+        sliceBits = Integer.numberOfTrailingZeros(slices);
+        l3Decoder = new AddressDecoder(config.get("block_size"),
+                config.get("l3_blocks") / slices / config.get("associativity"));
+
+        // The same seed, configuration and trace always produce the same statistics.
+        Integer seed = config.get("seed");
+        seeds = new RandomStream(seed == null ? 0 : seed);
+
+        int cpuCount = config.getOrDefault("cpu_count", 2);
+        if(cpuCount < 1) {
+            throw new IllegalArgumentException("cpu_count must be at least 1, but was " + cpuCount + ".");
+        }
+
+        int filterEntries = config.getOrDefault("snoop_filter_entries", 0);
+        if(filterEntries > 0) {
+            if(cpuCount > 64) {
+                throw new IllegalArgumentException("The snoop filter supports at most 64 CPUs, but cpu_count was "
+                        + cpuCount + ".");
+            }
+            if(!AddressDecoder.isPowerOfTwo(filterEntries)) {
+                throw new IllegalArgumentException("snoop_filter_entries must be a power of two, but was "
+                        + filterEntries + ".");
+            }
+            snoopFilter = new SnoopFilter(filterEntries, config.getOrDefault("snoop_filter_associativity", 8), this);
+        }
+        l2Inclusion = Inclusion.values()[config.getOrDefault("l2_inclusion", Inclusion.NINE.ordinal())];
+        l3Inclusion = Inclusion.values()[config.getOrDefault("l3_inclusion", Inclusion.NINE.ordinal())];
+        if(l2Inclusion == Inclusion.EXCLUSIVE) {
+            throw new IllegalArgumentException("l2_inclusion must be Inclusive or NINE, since L1 and L2 are always "
+                    + "filled together.");
+        }
+        l2InclusionEvents = new LongAdder[cpuCount];
+        for(int i = 0; i < cpuCount; i++) {
+            l2InclusionEvents[i] = new LongAdder();
+        }
+
+        timed = config.getOrDefault("timing", 0) != 0;
+        busOccupancy = config.getOrDefault("bus_occupancy", 4);
+        memoryOccupancy = config.getOrDefault("memory_occupancy", 20);
+        l3Occupancy = config.getOrDefault("l3_slice_occupancy", 0);
+
+        cpus = new CPU[cpuCount];
+        for(int i = 0; i < cpuCount; i++) {
+            cpus[i] = new CPU(i + 1, config, this);
+        }
+        l3Slices = new Cache[slices];
+        l3Ports = new Resource[slices];
+        for(int i = 0; i < slices; i++) {
+            l3Slices[i] = new Cache(config.get("l3_blocks") / slices, config.get("associativity"),
+                    config.get("l3_latency"), l3Decoder, CPU.replacement(config, "l3_replacement"), newRandomStream(),
+                    this);
+            l3Ports[i] = new Resource();
+        }
         lm1 = new Memory(config.get("lm1_size"), config.get("lm1_readLatency"), config.get("lm1_writeLatency"));
         lm2 = new Memory(config.get("lm2_size"), config.get("lm2_readLatency"), config.get("lm2_writeLatency"));
 
@@ -50,206 +172,986 @@ public class SystemBus {
             write = WriteScheme.WRITETHROUGH;
         }
 
-        stateChanges = new int[4][4];
+        int bufferEntries = config.getOrDefault("write_buffer_entries", 8);
+        if(bufferEntries < 0) {
+            throw new IllegalArgumentException("write_buffer_entries must not be negative, but was "
+                    + bufferEntries + ".");
+        }
+        if(write == WriteScheme.WRITEBACK && bufferEntries > 0) {
+            writeBuffer = new WriteBuffer(bufferEntries, lm1.getWriteLatency() + lm2.getWriteLatency(),
+                    timed ? memoryChannel : null, 2 * memoryOccupancy);
+        }
+
+        protocol = CoherenceProtocol.Type.values()[config.getOrDefault("coherence_protocol", 0)].create();
+        int states = protocol.getStates().length;
+        stateChanges = new long[states][states];
+
+        registerMetrics();
     }
 
+    /**
+     * Builds the address decoder for a cache level, checking that its geometry is valid.
+     */
+    private static AddressDecoder decoder(Map<String, Integer> config, String blocksKey) {
+        int blocks = config.get(blocksKey);
+        int blockSize = config.get("block_size");
+        int associativity = config.get("associativity");
+
+        if(!AddressDecoder.isPowerOfTwo(blockSize)) {
+            throw new IllegalArgumentException("block_size must be a power of two, but was " + blockSize + ".");
+        }
+        if(!AddressDecoder.isPowerOfTwo(blocks)) {
+            throw new IllegalArgumentException(blocksKey + " must be a power of two, but was " + blocks + ".");
+        }
+        if(!AddressDecoder.isPowerOfTwo(associativity) || associativity > blocks) {
+            throw new IllegalArgumentException("associativity must be a power of two no larger than "
+                    + blocksKey + " (" + blocks + "), but was " + associativity + ".");
+        }
+
+        return new AddressDecoder(blockSize, blocks / associativity);
+    }
+
+    /**
+     * @return A new random stream derived from the configured seed.
+     */
+    public RandomStream newRandomStream() {
+        return seeds.split();
+    }
+
+    public AddressDecoder getL1Decoder() {
+        return l1Decoder;
+    }
+
+    public AddressDecoder getL2Decoder() {
+        return l2Decoder;
+    }
+
+    /**
+     * @return The decoder of an L3 slice.
+     */
+    public AddressDecoder getL3Decoder() {
+        return l3Decoder;
+    }
+
+    /**
+     * Picks the L3 slice that holds an address by XOR-folding its block number, like the slice hash of a sliced
+     * last-level cache. Every bit of the block number takes part, so neither consecutive blocks nor large
+     * power of two strides pile up in one slice.
+     *
+     * @return The number of the slice, starting at 0.
+     */
+    public int slice(long address) {
+        if(sliceBits == 0) return 0;
+
+        long block = l3Decoder.block(address);
+        int slice = 0;
+        for(; block != 0; block >>>= sliceBits) {
+            slice ^= (int)block & sliceMask;
+        }
+        return slice;
+    }
+
+    /**
+     * @return The L3 slice that holds an address.
+     */
+    private Cache l3(long address) {
+        return l3Slices[slice(address)];
+    }
+
+    private boolean isL3(Cache cache) {
+        for(Cache slice : l3Slices) {
+            if(cache == slice) return true;
+        }
+        return false;
+    }
+
+    public int getCpuCount() {
+        return cpus.length;
+    }
+
+    /**
+     * @param cpu The number of the CPU, starting at 1.
+     */
+    public CPU getCPU(int cpu) {
+        return cpus[cpu - 1];
+    }
+
+    /**
+     * Executes an instruction on one of the CPUs.
+     *
+     * @param instruction The instruction to execute.
+     * @param cpu The number of the CPU, starting at 1.
+     */
     public void execute(Instruction instruction, int cpu) {
-        if(cpu == 1) {
-            runningTime += cpu1.execute(instruction);
-        } else if(cpu == 2) {
-            runningTime += cpu2.execute(instruction);
-        }
-    }
-
-    public Map<String, Integer> gatherStatistics() {
-        Map<String, Integer> stats = new LinkedHashMap<>();
-
-        stats.put("CPU Count", 2);
-        stats.put("Running Time", runningTime);
-        // CPU 1
-        stats.put("CPU #1 L1i Misses", cpu1.getL1i().getMisses());
-        stats.put("CPU #1 L1i Hits", cpu1.getL1i().getHits());
-        stats.put("CPU #1 L1i Accesses", cpu1.getL1i().getAccesses());
-        stats.put("CPU #1 L1d Misses", cpu1.getL1d().getMisses());
-        stats.put("CPU #1 L1d Hits", cpu1.getL1d().getHits());
-        stats.put("CPU #1 L1d Accesses", cpu1.getL1d().getAccesses());
-        stats.put("CPU #1 L2 Misses", cpu1.getL2().getMisses());
-        stats.put("CPU #1 L2 Hits", cpu1.getL2().getHits());
-        stats.put("CPU #1 L2 Accesses", cpu1.getL2().getAccesses());
-        stats.put("CPU #1 Instruction Count", cpu1.getInstructionCount());
-
-        // CPU 2
-        stats.put("CPU #2 L1i Misses", cpu2.getL1i().getMisses());
-        stats.put("CPU #2 L1i Hits", cpu2.getL1i().getHits());
-        stats.put("CPU #2 L1i Accesses", cpu2.getL1i().getAccesses());
-        stats.put("CPU #2 L1d Misses", cpu2.getL1d().getMisses());
-        stats.put("CPU #2 L1d Hits", cpu2.getL1d().getHits());
-        stats.put("CPU #2 L1d Accesses", cpu2.getL1d().getAccesses());
-        stats.put("CPU #2 L2 Misses", cpu2.getL2().getMisses());
-        stats.put("CPU #2 L2 Hits", cpu2.getL2().getHits());
-        stats.put("CPU #2 L2 Accesses", cpu2.getL2().getAccesses());
-        stats.put("CPU #2 Instruction Count", cpu2.getInstructionCount());
+        executing = cpus[cpu - 1];
+        runningTime.add(cpus[cpu - 1].execute(instruction));
+    }
+
+    /**
+     * Runs an instruction on one of the CPUs for functional warming only (see CPU.warm). Write backs skip the
+     * write buffer, whose timing would otherwise run ahead of the CPUs' clocks, which don't move while warming.
+     *
+     * @param cpu The number of the CPU, starting at 1.
+     */
+    public void warm(Instruction instruction, int cpu) {
+        executing = cpus[cpu - 1];
+        warming = true;
+        cpus[cpu - 1].warm(instruction);
+        warming = false;
+    }
+
+    /**
+     * @return Where the last read or write request placed on the bus found its block: another CPU's cache, L3, or
+     * one of the memories.
+     */
+    LatencyRecorder.Level getServed() {
+        return served;
+    }
+
+    /**
+     * Adds time spent executing instructions outside of execute(), for example by the ParallelEngine.
+     */
+    void addRunningTime(long time) {
+        runningTime.add(time);
+    }
+
+    /**
+     * Times a bus request for the CPUs' timing models. The request holds the bus for bus_occupancy ns, then the
+     * port of the L3 slice that is home to its block for l3_slice_occupancy ns, and each memory operation it does
+     * holds the memory channel for memory_occupancy ns; on top of any waiting for them, the request takes its usual
+     * latency. The home slice sees every request for its blocks, including ones another CPU answers.
+     *
+     * @param start When the request is ready to be placed on the bus.
+     * @param address The address requested.
+     * @param latency The request's latency without contention.
+     * @param memoryOperations How many memory reads and writes the request did.
+     * @return When the request completes.
+     */
+    long transfer(long start, long address, int latency, int memoryOperations) {
+        // No CPU can place a request before the slowest CPU's clock, so older reservations can be forgotten.
+        long horizon = Long.MAX_VALUE;
+        for(CPU cpu : cpus) {
+            horizon = Math.min(horizon, cpu.getTiming().getClock());
+        }
+        busChannel.release(horizon);
+        memoryChannel.release(horizon);
+        Resource port = l3Ports[slice(address)];
+        port.release(horizon);
+
+        long granted = busChannel.reserve(start, busOccupancy);
+        granted = port.reserve(granted, l3Occupancy);
+        long done = granted + latency;
+        if(memoryOperations > 0) {
+            done += memoryChannel.reserve(granted, (long)memoryOperations * memoryOccupancy) - granted;
+        }
+        return done;
+    }
+
+    /**
+     * @return The number of reads and writes done by the memories so far, leaving out the writes drained by the
+     * write buffer, which reserve memory themselves.
+     */
+    long getMemoryOperations() {
+        return lm1.getReads() + lm1.getWrites() + lm2.getReads() + lm2.getWrites() - bufferedWrites;
+    }
+
+    /**
+     * Streams a trace through every CPU. CPU 1 executes each record as soon as it is read, and CPU n replays the
+     * same records (n - 1) * lag instructions behind it. Only the last ((cpus - 1) * lag + 1) records are kept
+     * in memory.
+     *
+     * @param source The trace to replay.
+     * @param lag How many instructions each CPU trails behind the one before it.
+     * @throws IOException If the trace could not be read.
+     */
+    public void replay(TraceSource source, int lag) throws IOException {
+        replay(source, lag, null);
+    }
+
+    /**
+     * Streams a trace through every CPU like replay(source, lag), but only simulates in detail the rounds the
+     * sampler picks. The rest are run for functional warming or skipped.
+     *
+     * @param sampler Picks what to do with every round, or null to simulate every round in detail.
+     */
+    public void replay(TraceSource source, int lag, Sampler sampler) throws IOException {
+        if(sampler != null && (checkpointFile != null || start > 0)) {
+            throw new IllegalArgumentException("Checkpoints can't be taken or restored while sampling.");
+        }
+        long span = (long)(cpus.length - 1) * lag;
+        TraceWindow window = new TraceWindow(source, (int)span);
+
+        // When resuming, the records no CPU will look at again are skipped, and the rest of the window is refilled.
+        boolean more = window.skip(Math.max(0, start - span));
+        while(more && window.getPosition() < start) {
+            more = window.advance();
+        }
+
+        // In round r, CPU n executes record r - (n - 1) * lag, if the trace has such a record.
+        for(long round = start; ; round++) {
+            if(more) {
+                more = window.advance();
+            }
+            long end = window.getPosition();
+            if(!more && round - span >= end) {
+                break;
+            }
+
+            Sampler.Phase phase = sampler == null ? Sampler.Phase.MEASURE : sampler.phase(round);
+            if(phase != Sampler.Phase.SKIP) {
+                for(int i = 0; i < cpus.length; i++) {
+                    long record = round - (long)i * lag;
+                    if(record >= 0 && record < end) {
+                        if(phase == Sampler.Phase.WARM) {
+                            warm(window.get(record), i + 1);
+                        } else {
+                            execute(window.get(record), i + 1);
+                        }
+                    }
+                }
+            }
+            if(intervals != null) {
+                intervals.round(round + 1);
+            }
+            if(checkpoint(round + 1)) {
+                return;     // The run resumed from the checkpoint finishes the last interval.
+            }
+        }
+
+        if(sampler != null) {
+            sampler.finish(window.getPosition());
+        }
+        if(intervals != null) {
+            intervals.finish(window.getPosition() + span);
+        }
+    }
+
+    /**
+     * Sets where the statistics of every interval of the replay are written.
+     *
+     * @param intervals The exporter, or null to write no interval statistics.
+     */
+    public void setIntervals(IntervalExporter intervals) {
+        this.intervals = intervals;
+    }
+
+    IntervalExporter getIntervals() {
+        return intervals;
+    }
+
+    /**
+     * @return The simulated time of the slowest CPU, or 0 without the timing model.
+     */
+    long getSimulatedTime() {
+        long time = 0;
+        if(timed) {
+            for(CPU cpu : cpus) {
+                time = Math.max(time, cpu.getTiming().getTime());
+            }
+        }
+        return time;
+    }
+
+    /**
+     * Makes the replay save a checkpoint every so many rounds, each replacing the last.
+     *
+     * @param file Where to save the checkpoints.
+     * @param interval How many rounds apart the checkpoints are.
+     * @param exit True to stop the replay after the first checkpoint, for example once the caches are warm.
+     */
+    public void setCheckpoints(Path file, long interval, boolean exit) {
+        if(interval < 1) {
+            throw new IllegalArgumentException("checkpoint_interval must be at least 1, but was " + interval + ".");
+        }
+        checkpointFile = file;
+        checkpointInterval = interval;
+        checkpointExit = exit;
+    }
+
+    /**
+     * @return The first round after the passed one that the replay saves a checkpoint after, or Long.MAX_VALUE if
+     * it saves none.
+     */
+    long getNextCheckpoint(long rounds) {
+        return checkpointFile == null ? Long.MAX_VALUE : (rounds / checkpointInterval + 1) * checkpointInterval;
+    }
+
+    /**
+     * Called by the replay after every round, or batch of rounds. Saves a checkpoint if one is due.
+     *
+     * @param rounds The number of rounds executed so far.
+     * @return True if the replay should stop.
+     */
+    boolean checkpoint(long rounds) throws IOException {
+        if(checkpointFile == null || rounds % checkpointInterval != 0) {
+            return false;
+        }
+        saveCheckpoint(checkpointFile, rounds);
+        return checkpointExit;
+    }
+
+    /**
+     * @return The round the replay starts at: 0, or the round a restored checkpoint was saved after.
+     */
+    long getStart() {
+        return start;
+    }
+
+    /**
+     * Saves the whole state of the system to a file: the contents, replacement and prefetcher state of every
+     * cache, the snoop filter, the write buffer, the timing models and every statistic, along with how far the
+     * replay had got. The checkpoint is written to a temporary file first and then moved over the old one, so a run
+     * that dies while saving still leaves the last complete checkpoint.
+     *
+     * @param file The file to save the checkpoint to.
+     * @param rounds The number of rounds of the replay executed so far.
+     * @throws IOException If the file couldn't be written.
+     */
+    public void saveCheckpoint(Path file, long rounds) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try(CheckpointWriter output = new CheckpointWriter(FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+            save(output, rounds);
+        }
+
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Restores the state of the system from a file written by saveCheckpoint. The next replay skips the rounds
+     * executed before the checkpoint and carries on from there, so the trace must be the same one. The system must
+     * have the same structure as the one saved: the same number of CPUs, cache geometries, policies and optional
+     * components. Settings that don't change what is saved, such as latencies, may differ.
+     *
+     * @param file The checkpoint.
+     * @return The number of rounds executed before the checkpoint was saved.
+     * @throws IOException If the file couldn't be read or isn't a checkpoint.
+     * @throws IllegalArgumentException If the checkpoint was saved by a system of a different structure.
+     */
+    public long restoreCheckpoint(Path file) throws IOException {
+        try(CheckpointReader input = new CheckpointReader(FileChannel.open(file, StandardOpenOption.READ))) {
+            restore(input);
+        }
+        return start;
+    }
+
+    private void save(CheckpointWriter output, long rounds) throws IOException {
+        output.section("System");
+        output.putLong(rounds);
+        output.putLong(seeds.getState());
+        for(CPU cpu : cpus) {
+            cpu.save(output);
+        }
+        for(Cache slice : l3Slices) {
+            slice.save(output);
+        }
+        lm1.save(output);
+        lm2.save(output);
+
+        output.section(snoopFilter == null ? "Without Snoop Filter" : "With Snoop Filter");
+        if(snoopFilter != null) snoopFilter.save(output);
+        output.section(writeBuffer == null ? "Without Write Buffer" : "With Write Buffer");
+        if(writeBuffer != null) writeBuffer.save(output);
+        busChannel.save(output);
+        memoryChannel.save(output);
+        for(Resource port : l3Ports) {
+            port.save(output);
+        }
+
+        output.section("Statistics");
+        for(LongAdder adder : adders()) {
+            output.putLong(adder.sum());
+        }
+        for(long row[] : stateChanges) {
+            output.putLongs(row);
+        }
+
+        output.section(intervals == null ? "Without Intervals" : "With Intervals");
+        if(intervals != null) intervals.save(output);
+    }
+
+    private void restore(CheckpointReader input) throws IOException {
+        input.section("System");
+        long rounds = input.getLong();
+        seeds.setState(input.getLong());
+        for(CPU cpu : cpus) {
+            cpu.restore(input);
+        }
+        for(Cache slice : l3Slices) {
+            slice.restore(input);
+        }
+        lm1.restore(input);
+        lm2.restore(input);
+
+        input.section(snoopFilter == null ? "Without Snoop Filter" : "With Snoop Filter");
+        if(snoopFilter != null) snoopFilter.restore(input);
+        input.section(writeBuffer == null ? "Without Write Buffer" : "With Write Buffer");
+        if(writeBuffer != null) writeBuffer.restore(input);
+        busChannel.restore(input);
+        memoryChannel.restore(input);
+        for(Resource port : l3Ports) {
+            port.restore(input);
+        }
+
+        input.section("Statistics");
+        for(LongAdder adder : adders()) {
+            adder.reset();
+            adder.add(input.getLong());
+        }
+        for(long row[] : stateChanges) {
+            input.getLongs(row);
+        }
+        start = rounds;
+
+        // Interval statistics may be turned on or off when resuming.
+        boolean saved = input.section().equals("With Intervals");
+        if(intervals != null) {
+            intervals.restore(input, saved);
+        } else if(saved) {
+            IntervalExporter.skip(input, stateChanges.length);
+        }
+    }
+
+    /**
+     * @return The system's own counters, in the order they are saved in checkpoints.
+     */
+    private LongAdder[] adders() {
+        LongAdder shared[] = {runningTime, busTransactions, writebacks, l3InclusionEvents, victimFills,
+                exclusiveMoves, coherenceWritebacks};
+        LongAdder adders[] = Arrays.copyOf(shared, shared.length + l2InclusionEvents.length);
+        System.arraycopy(l2InclusionEvents, 0, adders, shared.length, l2InclusionEvents.length);
+        return adders;
+    }
+
+    /**
+     * @return The registry of the system's statistics.
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return A snapshot of every statistic of the system, in the order they were registered.
+     */
+    public Map<String, Long> gatherStatistics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * Registers the statistics of every component of the system.
+     */
+    private void registerMetrics() {
+        metrics.gauge("CPU Count", () -> cpus.length);
+        metrics.gauge("Running Time", runningTime::sum);
+        if(timed) {
+            metrics.gauge("Simulated Time", this::getSimulatedTime);
+        }
+        for(CPU cpu : cpus) {
+            String name = "CPU #" + cpu.getId();
+            metrics.gauge(name + " L1i Misses", () -> cpu.getL1i().getMisses());
+            metrics.gauge(name + " L1i Hits", () -> cpu.getL1i().getHits());
+            metrics.gauge(name + " L1i Accesses", () -> cpu.getL1i().getAccesses());
+            metrics.gauge(name + " L1d Misses", () -> cpu.getL1d().getMisses());
+            metrics.gauge(name + " L1d Hits", () -> cpu.getL1d().getHits());
+            metrics.gauge(name + " L1d Accesses", () -> cpu.getL1d().getAccesses());
+            metrics.gauge(name + " L2 Misses", () -> cpu.getL2().getMisses());
+            metrics.gauge(name + " L2 Hits", () -> cpu.getL2().getHits());
+            metrics.gauge(name + " L2 Accesses", () -> cpu.getL2().getAccesses());
+            metrics.gauge(name + " Instruction Count", cpu::getInstructionCount);
+
+            CoreTiming timing = cpu.getTiming();
+            if(timing != null) {
+                metrics.gauge(name + " Simulated Time", timing::getTime);
+                metrics.gauge(name + " Fetch Stall Time", timing::getFetchStallTime);
+                metrics.gauge(name + " Window Stall Time", timing::getWindowStallTime);
+                metrics.gauge(name + " MSHR Stall Time", timing::getMshrStallTime);
+                metrics.gauge(name + " Miss Time", timing::getMissTime);
+                metrics.gauge(name + " Merged Misses", timing::getMergedMisses);
+            }
+        }
 
         // L3
-        stats.put("L3 Misses", l3.getMisses());
-        stats.put("L3 Hits", l3.getHits());
-        stats.put("L3 Accesses", l3.getAccesses());
+        metrics.gauge("L3 Misses", () -> Arrays.stream(l3Slices).mapToLong(Cache::getMisses).sum());
+        metrics.gauge("L3 Hits", () -> Arrays.stream(l3Slices).mapToLong(Cache::getHits).sum());
+        metrics.gauge("L3 Accesses", () -> Arrays.stream(l3Slices).mapToLong(Cache::getAccesses).sum());
+        if(timed && l3Occupancy > 0) {
+            metrics.gauge("L3 Port Busy Time", () -> Arrays.stream(l3Ports).mapToLong(Resource::getBusyTime).sum());
+            metrics.gauge("L3 Port Queue Time", () -> Arrays.stream(l3Ports).mapToLong(Resource::getQueueTime).sum());
+        }
+        if(l3Slices.length > 1) {
+            for(int i = 0; i < l3Slices.length; i++) {
+                String name = "L3 Slice #" + (i + 1);
+                Cache slice = l3Slices[i];
+                metrics.gauge(name + " Accesses", slice::getAccesses);
+                metrics.gauge(name + " Misses", slice::getMisses);
+                metrics.gauge(name + " Occupancy", slice::getOccupancy);
+                if(timed && l3Occupancy > 0) {
+                    metrics.gauge(name + " Queue Time", l3Ports[i]::getQueueTime);
+                }
+            }
+        }
+
+        // Bus and memory contention
+        metrics.gauge("Bus Transactions", busTransactions::sum);
+        if(timed) {
+            metrics.gauge("Bus Requests", busChannel::getRequests);
+            metrics.gauge("Bus Busy Time", busChannel::getBusyTime);
+            metrics.gauge("Bus Queue Time", busChannel::getQueueTime);
+            metrics.gauge("Memory Busy Time", memoryChannel::getBusyTime);
+            metrics.gauge("Memory Queue Time", memoryChannel::getQueueTime);
+        }
+
+        // Prefetchers
+        for(CPU cpu : cpus) {
+            String name = "CPU #" + cpu.getId();
+            CoreTiming timing = cpu.getTiming();
+            prefetchStatistics(metrics, name + " L1i", cpu.getL1i(), timing == null ? null : timing.getL1iRegisters());
+            prefetchStatistics(metrics, name + " L1d", cpu.getL1d(), timing == null ? null : timing.getL1dRegisters());
+            prefetchStatistics(metrics, name + " L2", cpu.getL2(), timing == null ? null : timing.getL2Registers());
+        }
+
+        // Inclusion
+        for(CPU cpu : cpus) {
+            metrics.gauge("CPU #" + cpu.getId() + (l2Inclusion == Inclusion.INCLUSIVE ? " L2 Back-Invalidations"
+                    : " L2 Evictions Still in L1"), l2InclusionEvents[cpu.getId() - 1]::sum);
+        }
+        if(l3Inclusion == Inclusion.INCLUSIVE) {
+            metrics.gauge("L3 Back-Invalidations", l3InclusionEvents::sum);
+        } else if(l3Inclusion == Inclusion.EXCLUSIVE) {
+            metrics.gauge("L3 Victim Fills", victimFills::sum);
+            metrics.gauge("L3 Blocks Moved Up", exclusiveMoves::sum);
+        } else {
+            metrics.gauge("L3 Evictions Still Cached Privately", l3InclusionEvents::sum);
+        }
+
+        // Writebacks
+        metrics.gauge("Coherence Writebacks", coherenceWritebacks::sum);
+        if(write == WriteScheme.WRITEBACK) {
+            metrics.gauge("Writebacks", writebacks::sum);
+            if(writeBuffer != null) {
+                metrics.gauge("Write Buffer Writes", writeBuffer::getWrites);
+                metrics.gauge("Write Buffer Coalesced", writeBuffer::getCoalesced);
+                metrics.gauge("Write Buffer Stalls", writeBuffer::getStalls);
+                metrics.gauge("Write Buffer Stall Time", writeBuffer::getStallTime);
+            }
+        }
+
+        // Snoop filter
+        if(snoopFilter != null) {
+            metrics.gauge("Snoop Filter Occupancy", snoopFilter::getOccupancy);
+            metrics.gauge("Snoop Filter Evictions", snoopFilter::getEvictions);
+            metrics.gauge("Snoop Filter Back-Invalidations", snoopFilter::getBackInvalidations);
+            metrics.gauge("Snoop Filter Probes Skipped", snoopFilter::getProbesSkipped);
+        }
 
         // LM1
-        stats.put("LM1 Reads", lm1.getReads());
-        stats.put("LM1 Writes", lm1.getWrites());
+        metrics.gauge("LM1 Reads", lm1::getReads);
+        metrics.gauge("LM1 Writes", lm1::getWrites);
 
         // LM2
-        stats.put("LM2 Reads", lm2.getReads());
-        stats.put("LM2 Writes", lm2.getWrites());
+        metrics.gauge("LM2 Reads", lm2::getReads);
+        metrics.gauge("LM2 Writes", lm2::getWrites);
 
-        return stats;
+        // Latency histograms
+        for(CPU cpu : cpus) {
+            if(cpu.getLatencies() != null) cpu.getLatencies().register(metrics, "CPU #" + cpu.getId());
+        }
     }
 
-    public void incrementModified(CacheLine.MESI previousState) {
-        if(previousState == CacheLine.MESI.Exclusive) stateChanges[1][0]++;
-        else if(previousState == CacheLine.MESI.Shared) stateChanges[2][0]++;
-        else if(previousState == CacheLine.MESI.Invalid) stateChanges[3][0]++;
+    /**
+     * Registers the statistics of a cache's prefetcher, if it has one. Late prefetches are only known with the timing
+     * model enabled.
+     */
+    private static void prefetchStatistics(Metrics metrics, String name, Cache cache,
+                                           MissStatusRegisters registers) {
+        if(cache.getPrefetcher() == null) return;
+
+        metrics.gauge(name + " Prefetches Issued", cache::getPrefetchesIssued);
+        metrics.gauge(name + " Prefetches Useful", cache::getPrefetchesUseful);
+        if(registers != null) {
+            metrics.gauge(name + " Prefetches Late", registers::getLatePrefetches);
+        }
+        metrics.gauge(name + " Prefetches Polluting", cache::getPrefetchesPolluting);
     }
 
-    public int[][] getStateChanges() {
-        return stateChanges;
+    /**
+     * Counts a coherence state change of a CPU's copy of a block.
+     */
+    public void countTransition(CacheLine.State from, CacheLine.State to) {
+        stateChanges[protocol.indexOf(from)][protocol.indexOf(to)]++;
     }
 
-    public int saveModifiedCacheLine(long address) {
-        return memWrite(address);
+    /**
+     * @return How many times each state changed to each other state, with the rows and columns in the order of
+     * getProtocol().getStates().
+     */
+    public long[][] getStateChanges() {
+        long changes[][] = new long[stateChanges.length][];
+        for(int i = 0; i < changes.length; i++) {
+            changes[i] = stateChanges[i].clone();
+        }
+        return changes;
+    }
+
+    public CoherenceProtocol getProtocol() {
+        return protocol;
     }
 
     /**
-     * Response to a CPU's request for data.
-     * Checks the cache contents of the other CPUs and the memories in the system.
-     * @param address
-     * @param caller
-     * @param instruction
-     * @return
+     * Saves a modified block that a cache is evicting.
+     *
+     * In write-through mode, the block is written to memory. In write-back mode, it is written one level down: from
+     * L1 into the CPU's L2 and from L2 into L3, if they hold the block, and otherwise to memory through the write
+     * buffer.
+     *
+     * @param cache The cache evicting the block.
+     * @param address The address of the evicted block.
+     * @return How long the eviction takes.
      */
-    public int issueReadRequest(long address, CPU caller, boolean instruction) {
-        int time = 0;
+    public int saveModifiedCacheLine(Cache cache, long address) {
+        if(write == WriteScheme.WRITETHROUGH) {
+            return memWrite(address);
+        }
 
-        CPU otherCPU;
-        Cache callerL1;
-        Cache otherL1;
-        if(caller == cpu1) otherCPU = cpu2;
-        else otherCPU = cpu1;
+        CPU owner = cache.getOwner();
+        if(owner != null && cache != owner.getL2()) {
+            int index = owner.getL2().probe(address);
+            if(index != -1) {
+                writebacks.increment();
+                // An Owned block stays Owned, since other CPUs may still share it.
+                if(!owner.getL2().isModified(index)) owner.getL2().setState(index, CacheLine.State.Modified);
+                return owner.getL2().getLatency();
+            }
+        }
+        if(owner != null && cache == owner.getL2() && l3Inclusion == Inclusion.EXCLUSIVE) {
+            return 0;   // The victim fill will carry the data into L3, and count the writeback.
+        }
+        writebacks.increment();
+        return isL3(cache) ? writeToMemory(address) : writeToShared(address);
+    }
 
-        // If the read request is for an instruction, we need to use the L1i cache instead of the L2d cache.
-        if(instruction) {
-            callerL1 = caller.getL1i();
-            otherL1 = otherCPU.getL1i();
-        } else {
-            callerL1 = caller.getL1d();
-            otherL1 = otherCPU.getL1d();
+    /**
+     * Writes a modified block into L3 if it holds the block, and otherwise to memory.
+     */
+    private int writeToShared(long address) {
+        Cache l3 = l3(address);
+        int index = l3.probe(address);
+        if(index != -1) {
+            l3.setState(index, CacheLine.State.Modified);
+            return l3.getLatency();
         }
+        return writeToMemory(address);
+    }
 
-        // First check the L1 caches of the other CPU.
-        if(debug) debuggingOutput.println("Other CPU L1: ");
-        int indexL1 = otherL1.locate(address);
-        time += otherL1.getLatency();
-        if(indexL1 != -1) {
-            // Copy the data to the calling CPU's L1 and L2 caches.
-            if(debug) debuggingOutput.println("Calling CPU L1: ");
-            int newIndex1 = callerL1.add(address);
-            if(debug) debuggingOutput.println("Calling CPU L2: ");
-            int newIndex2 = caller.getL2().add(address);
+    /**
+     * Writes a modified block to memory, through the write buffer if there is one.
+     */
+    private int writeToMemory(long address) {
+        if(writeBuffer != null && !warming && writeBuffer.coalesce(l1Decoder.block(address), now())) {
+            return 0;
+        }
+        int written = (lm1.write(address) ? 1 : 0) + (lm2.write(address) ? 1 : 0);
+        if(writeBuffer == null || warming) {
+            return lm1.getWriteLatency() + lm2.getWriteLatency();
+        }
+        bufferedWrites += written;
+        long stall = writeBuffer.insert(l1Decoder.block(address), now());
+        CoreTiming timing = executing == null ? null : executing.getTiming();
+        if(timing != null) {
+            if(stall > 0) timing.writebackQueued(now() + stall);
+            return 0;
+        }
+        return (int)stall;
+    }
 
-            // Set all copies of the data into the MESI shared state.
-            // If the other CPU's data was modified, we need to write it to memory before sharing it.
-            if(otherL1.isModified(indexL1)) {
-                time += memWrite(address);
+    /**
+     * @return The simulated time of the CPU executing the current instruction.
+     */
+    private long now() {
+        return executing == null ? 0 : executing.getTime();
+    }
 
-                stateChanges[0][2]++;   // MESI Change: Modified -> Shared
+    public SnoopFilter getSnoopFilter() {
+        return snoopFilter;
+    }
 
-                // Update other CPU's caches.
-                otherL1.setState(indexL1, CacheLine.MESI.Shared);
-                if(debug) debuggingOutput.println("Other CPU L2: ");
-                int indexL2 = otherCPU.getL2().locate(address);
-                otherCPU.getL2().setState(indexL2, CacheLine.MESI.Shared);
+    /**
+     * Called by a private cache when a block is placed into it.
+     */
+    void lineFilled(Cache cache, long address) {
+        if(snoopFilter != null) {
+            snoopFilter.addSharer(l1Decoder.block(address), cache.getOwner().getId());
+        }
+    }
 
-                // Update calling CPU's caches.
-                callerL1.setState(newIndex1, CacheLine.MESI.Shared);
-                caller.getL2().setState(newIndex2, CacheLine.MESI.Shared);
+    /**
+     * Called by a private cache when a block is evicted from it or invalidated.
+     */
+    void lineDropped(Cache cache, long address) {
+        if(snoopFilter == null) return;
+
+        // The CPU is still a sharer as long as any of its private caches holds the block.
+        CPU owner = cache.getOwner();
+        if(owner.getL1i().probe(address) == -1 && owner.getL1d().probe(address) == -1
+                && owner.getL2().probe(address) == -1) {
+            snoopFilter.removeSharer(l1Decoder.block(address), owner.getId());
+        }
+    }
+
+    /**
+     * Invalidates a block in the private caches of every CPU in the passed mask, writing it back if it was modified.
+     * Used by the snoop filter when it has to evict the entry tracking the block.
+     *
+     * @param block The block address.
+     * @param sharers Mask with bit (n - 1) set for every CPU n to invalidate.
+     */
+    void backInvalidate(long block, long sharers) {
+        snoopFilter.countBackInvalidations(invalidatePrivate(block << l1Decoder.getOffsetBits(), sharers));
+    }
 
-                // Update the L3 cache.
-                if(debug) debuggingOutput.println("L3: ");
-                int l3Index = l3.locate(address);
-                l3.setState(l3Index, CacheLine.MESI.Shared);
+    /**
+     * Invalidates a block in the private caches of every CPU in the passed mask. A modified copy is written back to
+     * memory in write-through mode, and to L3 or memory in write-back mode.
+     *
+     * @return How many cache lines were invalidated.
+     */
+    private int invalidatePrivate(long address, long sharers) {
+        int lines = 0;
+        for(CPU cpu : cpus) {
+            if((sharers & (1L << (cpu.getId() - 1))) == 0) continue;
+
+            Cache caches[] = {cpu.getL1i(), cpu.getL1d(), cpu.getL2()};
+            CacheLine.State previous = CacheLine.State.Invalid;    // The state of a modified copy.
+            for(Cache cache : caches) {
+                int index = cache.probe(address);
+                if(index != -1) {
+                    if(cache.isModified(index)) previous = cache.getState(index);
+                    cache.setState(index, CacheLine.State.Invalid);
+                    lines++;
+                }
             }
-            // If the other CPU's data was exclusive, it is now shared since it's being used in another processor.
-            else if(otherL1.isExclusive(indexL1)) {
-                stateChanges[1][2]++;   // MESI Change: Exclusive -> Shared
-
-                // Update other CPU's caches.
-                otherL1.setState(indexL1, CacheLine.MESI.Shared);
-                if(debug) debuggingOutput.println("Other CPU L2: ");
-                int indexL2 = otherCPU.getL2().add(address);
-                otherCPU.getL2().setState(indexL2, CacheLine.MESI.Shared);
-
-                // Update calling CPU's caches.
-                callerL1.setState(newIndex1, CacheLine.MESI.Shared);
-                caller.getL2().setState(newIndex2, CacheLine.MESI.Shared);
-
-                // Update the L3 Cache.
-                if(debug) debuggingOutput.println("L3: ");
-                int l3Index = l3.add(address);
-                l3.setState(l3Index, CacheLine.MESI.Shared);
+
+            if(previous != CacheLine.State.Invalid) {
+                if(write == WriteScheme.WRITETHROUGH) {
+                    runningTime.add(memWrite(address));
+                } else {
+                    writebacks.increment();
+                    runningTime.add(writeToShared(address));
+                }
+                countTransition(previous, CacheLine.State.Invalid);
             }
+        }
+        return lines;
+    }
 
-            return time;
+    /**
+     * Called by any cache when it evicts a valid block to make room for another, to enforce the inclusion policies.
+     *
+     * @param cache The cache evicting the block.
+     * @param victim The address of the evicted block.
+     * @param dirty True if the evicted copy was modified.
+     */
+    void lineEvicted(Cache cache, long victim, boolean dirty) {
+        if(isL3(cache)) {
+            long sharers = sharersOf(victim);
+            if(l3Inclusion == Inclusion.INCLUSIVE) {
+                l3InclusionEvents.add(invalidatePrivate(victim, sharers));
+            } else if(l3Inclusion == Inclusion.NINE) {
+                for(CPU cpu : cpus) {
+                    if((sharers & (1L << (cpu.getId() - 1))) != 0 && (cpu.getL1i().probe(victim) != -1
+                            || cpu.getL1d().probe(victim) != -1 || cpu.getL2().probe(victim) != -1)) {
+                        l3InclusionEvents.increment();
+                        break;
+                    }
+                }
+            }
+            return;
         }
 
-        // Next check the L2 cache of the other CPU.
-        int index2 = otherCPU.getL2().locate(address);
-        time += otherCPU.getL2().getLatency();
-        if(index2 != -1) {
-            // Copy the data to the calling CPU's L1 and L2 caches.
-            if(debug) debuggingOutput.println("Calling CPU L1: ");
-            int newIndex1 = callerL1.add(address);
-            if(debug) debuggingOutput.println("Calling CPU L2: ");
-            int newIndex2 = caller.getL2().add(address);
+        CPU owner = cache.getOwner();
+        if(owner == null || cache != owner.getL2()) return;
+
+        Cache l1s[] = {owner.getL1i(), owner.getL1d()};
+        for(Cache l1 : l1s) {
+            int index = l1.probe(victim);
+            if(index == -1) continue;
+
+            l2InclusionEvents[owner.getId() - 1].increment();
+            if(l2Inclusion == Inclusion.INCLUSIVE) {
+                if(l1.isModified(index) && !dirty) {
+                    runningTime.add(saveModifiedCacheLine(cache, victim));
+                    dirty = true;
+                }
+                l1.setState(index, CacheLine.State.Invalid);
+            }
+        }
 
-            // Set all copies of the data into the MESI shared state.
-            // If the other CPU's data was modified, we need to write it to memory before sharing it.
-            if(otherCPU.getL2().isModified(index2)) {
-                time += memWrite(address);
+        if(l3Inclusion == Inclusion.EXCLUSIVE) {
+            // Fill L3 once the current request is done, so that no request sees its L3 lines change underneath it.
+            if(victimCount == victims.length) {
+                victims = Arrays.copyOf(victims, victimCount * 2);
+                victimsDirty = Arrays.copyOf(victimsDirty, victimCount * 2);
+            }
+            victims[victimCount] = victim;
+            victimsDirty[victimCount] = dirty && write == WriteScheme.WRITEBACK;
+            victimCount++;
+        }
+    }
 
-                stateChanges[0][2]++;   // MESI Change: Modified -> Shared
+    /**
+     * Moves the blocks evicted from the private L2 caches into an exclusive L3. Called by the CPUs after every
+     * instruction.
+     */
+    void fillVictims() {
+        if(victimCount == 0) return;
+
+        for(int i = 0; i < victimCount; i++) {
+            Cache l3 = l3(victims[i]);
+            // add() leaves the state bits of the line it replaces, so a fill must set the state even when clean.
+            boolean present = l3.probe(victims[i]) != -1;
+            int index = l3.add(victims[i]);
+            if(victimsDirty[i]) {
+                writebacks.increment();
+                l3.setState(index, CacheLine.State.Modified);
+            } else if(!present) {
+                l3.setState(index, CacheLine.State.Exclusive);
+            }
+            victimFills.increment();
+        }
+        victimCount = 0;
+    }
 
-                // Update other CPU's cache.
-                otherCPU.getL2().setState(index2, CacheLine.MESI.Shared);
+    /**
+     * Puts a block into L3 in the passed state, unless L3 is exclusive of the private caches. In write-back mode, a
+     * block L3 already holds modified stays modified, since memory doesn't have its data yet.
+     */
+    private void fillL3(long address, CacheLine.State state) {
+        if(l3Inclusion == Inclusion.EXCLUSIVE) return;
+
+        Cache l3 = l3(address);
+        int index = l3.probe(address);
+        if(write == WriteScheme.WRITEBACK && index != -1 && l3.isModified(index)) {
+            l3.add(address);
+            return;
+        }
+        index = l3.add(address);
+        l3.setState(index, state);
+    }
 
-                // Update calling CPU's caches.
-                callerL1.setState(newIndex1, CacheLine.MESI.Shared);
-                caller.getL2().setState(newIndex2, CacheLine.MESI.Shared);
+    /**
+     * Returns true if the snoop filter says the passed CPU can't hold the block, so probing it can be skipped.
+     *
+     * @param sharers The sharer mask from the snoop filter, or -1 if there is no filter.
+     */
+    private boolean skipProbe(long sharers, CPU cpu) {
+        if((sharers & (1L << (cpu.getId() - 1))) != 0) {
+            return false;
+        }
+        snoopFilter.countProbeSkipped();
+        return true;
+    }
 
-                // Update the L3 cache.
-                if(debug) debuggingOutput.println("L3: ");
-                int l3Index = l3.locate(address);
-                l3.setState(l3Index, CacheLine.MESI.Shared);
-            }
-            // If the other CPU's data was exclusive, it is now shared since it's being used in another processor.
-            else if(otherCPU.getL2().isExclusive(index2)) {
-                stateChanges[1][2]++;   // MESI Change: Exclusive -> Shared
+    /**
+     * Returns the snoop filter's sharer mask for the block containing the address, or -1 (every CPU) if there is
+     * no filter.
+     */
+    private long sharersOf(long address) {
+        return snoopFilter == null ? -1L : snoopFilter.getSharers(l1Decoder.block(address));
+    }
+
+    /**
+     * Records in the snoop filter the state a request left the calling CPU's copy in.
+     */
+    private void granted(long address, CacheLine.State state) {
+        if(snoopFilter != null) {
+            snoopFilter.setState(l1Decoder.block(address), state);
+        }
+    }
+
+    /**
+     * Response to a CPU's request for data.
+     * Checks the cache contents of the other CPUs and the memories in the system.
+     * @param address
+     * @param caller
+     * @param instruction
+     * @return
+     */
+    public int issueReadRequest(long address, CPU caller, boolean instruction) {
+        return read(address, caller, instruction ? caller.getL1i() : caller.getL1d(), instruction);
+    }
 
-                // Update other CPU's caches.
-                otherCPU.getL2().setState(index2, CacheLine.MESI.Shared);
+    /**
+     * Reads a block into the calling CPU's L2 only, for an L2 prefetch.
+     *
+     * @return The latency of the request.
+     */
+    public int issuePrefetchRequest(long address, CPU caller) {
+        return read(address, caller, null, false);
+    }
 
-                // Update calling CPU's caches.
-                callerL1.setState(newIndex1, CacheLine.MESI.Shared);
-                caller.getL2().setState(newIndex2, CacheLine.MESI.Shared);
+    /**
+     * Reads a block into the calling CPU's L2 and, unless callerL1 is null, the L1 cache passed.
+     */
+    private int read(long address, CPU caller, Cache callerL1, boolean instruction) {
+        int time = 0;
+        busTransactions.increment();
+        Cache l3 = l3(address);
+
+        // Set if another CPU holds the block in a state that doesn't answer reads (MESIF Shared).
+        boolean sharedElsewhere = false;
+
+        long sharers = sharersOf(address);
+        for(CPU otherCPU : cpus) {
+            if(otherCPU == caller || skipProbe(sharers, otherCPU)) continue;
+
+            // If the read request is for an instruction, we need to use the L1i cache instead of the L2d cache.
+            Cache otherL1 = instruction ? otherCPU.getL1i() : otherCPU.getL1d();
+
+            // First check the L1 caches of the other CPU, then its L2 cache.
+            if(debug) debuggingOutput.println("CPU " + otherCPU.getId() + " L1: ");
+            CacheLine.State state = CacheLine.State.Invalid;
+            int index = otherL1.locate(address);
+            time += otherL1.getLatency();
+            if(index != -1) {
+                state = otherL1.getState(index);
+            } else {
+                index = otherCPU.getL2().locate(address);
+                time += otherCPU.getL2().getLatency();
+                if(index != -1) state = otherCPU.getL2().getState(index);
+            }
+            if(index == -1) continue;
 
-                // Update the L3 cache.
-                if(debug) debuggingOutput.println("L3: ");
-                int l3Index = l3.add(address);
-                l3.setState(l3Index, CacheLine.MESI.Shared);
+            if(!protocol.supplies(state)) {
+                sharedElsewhere = true;
+                continue;
             }
+
+            // Copy the data to the calling CPU's L1 and L2 caches.
+            if(debug) debuggingOutput.println("Calling CPU L1: ");
+            int newIndex1 = callerL1 == null ? -1 : callerL1.add(address);
+            if(debug) debuggingOutput.println("Calling CPU L2: ");
+            int newIndex2 = caller.getL2().add(address);
+
+            // The other CPU's copies change state as the protocol says, which may first write the block back.
+            time += snoop(otherCPU, address, state, CoherenceProtocol.Event.SNOOP_READ);
+
+            // Update calling CPU's caches.
+            CacheLine.State fill = protocol.getSharedFill();
+            if(callerL1 != null) callerL1.setState(newIndex1, fill);
+            caller.getL2().setState(newIndex2, fill);
+            countTransition(CacheLine.State.Invalid, fill);
+            granted(address, fill);
+            served = LatencyRecorder.Level.REMOTE;
             return time;
         }
 
+        // The data comes from L3 or memory. The calling CPU has the only copy, unless others hold it Shared.
+        CacheLine.State fill = sharedElsewhere ? protocol.getSharedFill() : CacheLine.State.Exclusive;
+
         // Next check the L3 cache.
         time += l3.getLatency();
         if(debug) debuggingOutput.println("L3 Cache: ");
@@ -257,143 +1159,124 @@ public class SystemBus {
         if(index3 != -1) {
             // Copy the data to the calling CPU's L1 and L2 caches.
             if(debug) debuggingOutput.println("Calling CPU L1: ");
-            int newIndex1 = callerL1.add(address);
+            int newIndex1 = callerL1 == null ? -1 : callerL1.add(address);
             if(debug) debuggingOutput.println("Calling CPU L2: ");
             int newIndex2 = caller.getL2().add(address);
 
-            // If the data has been modified, we need to write it to memory before making it exclusive.
-            // The data is exclusive because the calling CPU is the only one that has the data.
-            if(l3.isModified(index3)) {
+            // In write-through mode, modified data is written to memory before it is handed out. In write-back
+            // mode, L3 keeps it dirty, or passes it up dirty if L3 is exclusive.
+            boolean dirty = l3.isModified(index3);
+            if(dirty && write == WriteScheme.WRITETHROUGH) {
                 time += memWrite(address);
-
-                stateChanges[0][1]++;   // MESI Change: Modified -> Exclusive
+                countTransition(CacheLine.State.Modified, CacheLine.State.Exclusive);
+                dirty = false;
             }
 
-            // Update the cache states.
-            l3.setState(index3, CacheLine.MESI.Exclusive);
-            callerL1.setState(newIndex1, CacheLine.MESI.Exclusive);
-            caller.getL2().setState(newIndex2, CacheLine.MESI.Exclusive);
+            // Update the cache states. An exclusive L3 hands the block over to the calling CPU.
+            if(l3Inclusion == Inclusion.EXCLUSIVE) {
+                if(dirty && sharedElsewhere) {
+                    time += writeToMemory(address);
+                } else if(dirty) {
+                    fill = CacheLine.State.Modified;
+                }
+                l3.setState(index3, CacheLine.State.Invalid);
+                exclusiveMoves.increment();
+            } else if(!dirty) {
+                l3.setState(index3, CacheLine.State.Exclusive);
+            }
+            if(callerL1 != null) callerL1.setState(newIndex1, fill);
+            caller.getL2().setState(newIndex2, fill);
+            countTransition(CacheLine.State.Invalid, fill);
+            granted(address, fill);
+            served = LatencyRecorder.Level.L3;
             return time;
         }
 
         // Next check the LM1 (DRAM).
+        served = LatencyRecorder.Level.LM1;
         time += lm1.getReadLatency();
         if (lm1.read(address)) {
             // Copy the data to the calling CPU's L1 and L2 caches.
             if(debug) debuggingOutput.println("Calling CPU L1: ");
-            int newIndex1 = callerL1.add(address);
+            int newIndex1 = callerL1 == null ? -1 : callerL1.add(address);
             if(debug) debuggingOutput.println("Calling CPU L2: ");
             int newIndex2 = caller.getL2().add(address);
             if(debug) debuggingOutput.println("L3: ");
-            index3 = l3.add(address);
+            fillL3(address, CacheLine.State.Exclusive);
 
-            stateChanges[3][1]++;   // MESI Change: Invalid -> Exclusive
+            countTransition(CacheLine.State.Invalid, fill);
 
             // Update the cache states.
-            l3.setState(index3, CacheLine.MESI.Exclusive);
-            callerL1.setState(newIndex1, CacheLine.MESI.Exclusive);
-            caller.getL2().setState(newIndex2, CacheLine.MESI.Exclusive);
+            if(callerL1 != null) callerL1.setState(newIndex1, fill);
+            caller.getL2().setState(newIndex2, fill);
+            granted(address, fill);
             return time;
         }
 
         // Finally, check the LM2 (PM).
+        served = LatencyRecorder.Level.LM2;
         time += lm2.getReadLatency();
         if (lm2.read(address)) {
             // Copy the data to the calling CPU's L1 and L2 caches.
             if(debug) debuggingOutput.println("Calling CPU L1: ");
-            int newIndex1 = callerL1.add(address);
+            int newIndex1 = callerL1 == null ? -1 : callerL1.add(address);
             if(debug) debuggingOutput.println("Calling CPU L2: ");
             int newIndex2 = caller.getL2().add(address);
             if(debug) debuggingOutput.println("L3: ");
-            index3 = l3.add(address);
+            fillL3(address, CacheLine.State.Exclusive);
 
-            stateChanges[3][1]++;   // MESI Change: Invalid -> Exclusive
+            countTransition(CacheLine.State.Invalid, fill);
 
             // Update the cache states.
-            l3.setState(index3, CacheLine.MESI.Exclusive);
-            callerL1.setState(newIndex1, CacheLine.MESI.Exclusive);
-            caller.getL2().setState(newIndex2, CacheLine.MESI.Exclusive);
+            if(callerL1 != null) callerL1.setState(newIndex1, fill);
+            caller.getL2().setState(newIndex2, fill);
+            granted(address, fill);
         }
         return time;
     }
 
     public int issueWriteRequest(long address, CPU caller) {
         int time = 0;
-
-        CPU otherCPU;
-        if(caller == cpu1) {
-            otherCPU = cpu2;
-        } else {
-            otherCPU = cpu1;
-        }
-
-        // First check the L1 cache of the other CPU for an occurrence of the address being written to.
-        int index1 = otherCPU.getL1d().locate(address);
-        int index2 = otherCPU.getL2().locate(address);
-        time += otherCPU.getL1d().getLatency();
-        time += otherCPU.getL2().getLatency();
-        if(index1 != -1) {
-            // If the address in the other CPU is modified, it must be saved to main memory before the calling CPU
-            // makes it's write, to ensure memory consistency. Also, the address in the other CPU must be invalidated.
-            if(otherCPU.getL1d().isModified(index1)) {
-                time += memWrite(address);
-
-                otherCPU.getL1d().setState(index1, CacheLine.MESI.Invalid);
-                otherCPU.getL2().setState(index2, CacheLine.MESI.Invalid);
-
-                stateChanges[0][3]++;   // MESI Change: Modified -> Invalid
-            } else {
-                otherCPU.getL1d().setState(index1, CacheLine.MESI.Invalid);
-                if(index2 != -1) otherCPU.getL2().setState(index2, CacheLine.MESI.Invalid);
-
-                if(otherCPU.getL1d().isExclusive(index1)) stateChanges[1][3]++;   // MESI Change: Exclusive -> Invalid
-                else if(otherCPU.getL1d().isShared(index1)) stateChanges[2][3]++; // MESI Change: Shared -> Invalid
-            }
-
-            // Add the modified value to the calling CPU's cache.
-            int newIndex1 = caller.getL1d().add(address);
-            time+= caller.getL1d().getLatency();
-            int newIndex2 = caller.getL2().add(address);
-            time+= caller.getL2().getLatency();
-            caller.getL1d().setState(newIndex1, CacheLine.MESI.Modified);
-            caller.getL2().setState(newIndex2, CacheLine.MESI.Modified);
-
-            // Also need to update the state in L3.
-            int index3 = l3.add(address);
-            time += l3.getLatency();
-            l3.setState(index3, CacheLine.MESI.Modified);
-
-            return time;
+        busTransactions.increment();
+        Cache l3 = l3(address);
+
+        // Every other CPU holding the address being written to must give up its copy.
+        boolean invalidated = false;
+        long sharers = sharersOf(address);
+        for(CPU otherCPU : cpus) {
+            if(otherCPU == caller || skipProbe(sharers, otherCPU)) continue;
+
+            // Check the L1 and L2 caches of the other CPU for an occurrence of the address being written to.
+            int index1 = otherCPU.getL1d().locate(address);
+            int index2 = otherCPU.getL2().locate(address);
+            time += otherCPU.getL1d().getLatency();
+            time += otherCPU.getL2().getLatency();
+            if(index1 == -1 && index2 == -1) continue;
+
+            // The other CPU's copies are invalidated. Depending on the protocol, a modified block is either
+            // written back first or handed over to the calling CPU dirty.
+            CacheLine.State previous = index1 != -1 ? otherCPU.getL1d().getState(index1)
+                    : otherCPU.getL2().getState(index2);
+            time += snoop(otherCPU, address, previous, CoherenceProtocol.Event.SNOOP_WRITE);
+            invalidated = true;
         }
 
-        // Next check the L2 cache of the other CPU for an occurrence of the address being written to.
-        if(index2 != -1) {
-            // If the address in the other CPU is modified, it must be saved to main memory before the calling CPU
-            // makes it's write, to ensure memory consistency. Also, the address in the other CPU must be invalidated.
-            if(otherCPU.getL2().isModified(index2)) {
-                time += memWrite(address);
-                otherCPU.getL2().setState(index2, CacheLine.MESI.Invalid);
-                stateChanges[0][3]++;   // MESI Change: Modified -> Invalid
-            } else {
-                otherCPU.getL2().setState(index2, CacheLine.MESI.Invalid);
-
-                if(otherCPU.getL2().isExclusive(index2)) stateChanges[1][3]++;   // MESI Change: Exclusive -> Invalid
-                else if(otherCPU.getL2().isShared(index2)) stateChanges[2][3]++; // MESI Change: Shared -> Invalid
-            }
-
+        if(invalidated) {
             // Add the modified value to the calling CPU's cache.
             int newIndex1 = caller.getL1d().add(address);
             time+= caller.getL1d().getLatency();
             int newIndex2 = caller.getL2().add(address);
             time+= caller.getL2().getLatency();
-            caller.getL1d().setState(newIndex1, CacheLine.MESI.Modified);
-            caller.getL2().setState(newIndex2, CacheLine.MESI.Modified);
+            caller.getL1d().setState(newIndex1, CacheLine.State.Modified);
+            caller.getL2().setState(newIndex2, CacheLine.State.Modified);
+            countTransition(CacheLine.State.Invalid, CacheLine.State.Modified);
 
             // Also need to update the state in L3.
-            int index3 = l3.add(address);
+            fillL3(address, CacheLine.State.Modified);
             time += l3.getLatency();
-            l3.setState(index3, CacheLine.MESI.Modified);
 
+            granted(address, CacheLine.State.Modified);
+            served = LatencyRecorder.Level.REMOTE;
             return time;
         }
 
@@ -406,8 +1289,8 @@ public class SystemBus {
             if(l3.isModified(index3)) {
                 time += memWrite(address);
             } else if(l3.isExclusive(index3))  {
-                l3.setState(index3, CacheLine.MESI.Modified);
-                stateChanges[1][3]++;   // MESI Change: Exclusive -> Invalid
+                l3.setState(index3, CacheLine.State.Modified);
+                countTransition(CacheLine.State.Exclusive, CacheLine.State.Modified);
             }
 
             // Add the modified value to the calling CPU's cache.
@@ -415,23 +1298,34 @@ public class SystemBus {
             time+= caller.getL1d().getLatency();
             int newIndex2 = caller.getL2().add(address);
             time+= caller.getL2().getLatency();
-            caller.getL1d().setState(newIndex1, CacheLine.MESI.Modified);
-            caller.getL2().setState(newIndex2, CacheLine.MESI.Modified);
+            caller.getL1d().setState(newIndex1, CacheLine.State.Modified);
+            caller.getL2().setState(newIndex2, CacheLine.State.Modified);
+            countTransition(CacheLine.State.Invalid, CacheLine.State.Modified);
+            if(l3Inclusion == Inclusion.EXCLUSIVE) {
+                l3.setState(index3, CacheLine.State.Invalid);
+                exclusiveMoves.increment();
+            }
 
+            granted(address, CacheLine.State.Modified);
+            served = LatencyRecorder.Level.L3;
             return time;
         }
 
-        // Finally write to memory and update all caches.
+        // Finally write to memory and update all caches. In write-back mode the write only goes to the caches.
+        CacheLine.State fill = write == WriteScheme.WRITETHROUGH ? CacheLine.State.Exclusive
+                : CacheLine.State.Modified;
         time += memWrite(address);
-        index1 = caller.getL1d().add(address);
+        int index1 = caller.getL1d().add(address);
         time += caller.getL1d().getLatency();
-        caller.getL1d().setState(index1, CacheLine.MESI.Exclusive);
-        index2 = caller.getL2().add(address);
+        caller.getL1d().setState(index1, fill);
+        int index2 = caller.getL2().add(address);
         time += caller.getL2().getLatency();
-        caller.getL2().setState(index2, CacheLine.MESI.Exclusive);
-        index3 = l3.add(address);
+        caller.getL2().setState(index2, fill);
+        fillL3(address, CacheLine.State.Exclusive);
         time += l3.getLatency();
-        l3.setState(index3, CacheLine.MESI.Exclusive);
+        countTransition(CacheLine.State.Invalid, fill);
+        granted(address, fill);
+        served = LatencyRecorder.Level.LM1;
         return time;
     }
 
@@ -443,35 +1337,69 @@ public class SystemBus {
      */
     public int issueRequestForOwnership(long address, CPU caller) {
         int time = 0;
+        busTransactions.increment();
+
+        long sharers = sharersOf(address);
+        for(CPU otherCPU : cpus) {
+            if(otherCPU == caller || skipProbe(sharers, otherCPU)) continue;
+
+            CacheLine.State previous = CacheLine.State.Invalid;
+            Cache caches[] = {otherCPU.getL1i(), otherCPU.getL1d(), otherCPU.getL2()};
+            for(Cache cache : caches) {
+                int index = cache.locate(address);
+                if(index != -1) {
+                    time += cache.getLatency();
+                    if(previous == CacheLine.State.Invalid || cache.isModified(index)) {
+                        previous = cache.getState(index);
+                    }
+                }
+            }
 
-        CPU otherCPU;
-        if(caller == cpu1) {
-            otherCPU = cpu2;
-        } else {
-            otherCPU = cpu1;
+            if(previous != CacheLine.State.Invalid) {
+                time += snoop(otherCPU, address, previous, CoherenceProtocol.Event.SNOOP_WRITE);
+            }
         }
 
-        int index1i = otherCPU.getL1i().locate(address);
-        int index1d = otherCPU.getL1d().locate(address);
-        int index2 = otherCPU.getL2().locate(address);
+        granted(address, CacheLine.State.Modified);
+        return time;
+    }
 
-        if(index1i != -1) {
-            time += otherCPU.getL1i().getLatency();
-            otherCPU.getL1i().setState(index1i, CacheLine.MESI.Invalid);
-            stateChanges[2][3]++;   // MESI Change: Shared -> Invalid
+    /**
+     * Applies a snooped request to every copy of a block in another CPU's private caches.
+     *
+     * @param cpu The CPU being snooped.
+     * @param state The state of the CPU's copy that answered the request.
+     * @param event SNOOP_READ or SNOOP_WRITE.
+     * @return How long writing the block back took, if the protocol had to.
+     */
+    private int snoop(CPU cpu, long address, CacheLine.State state, CoherenceProtocol.Event event) {
+        CacheLine.State next = protocol.next(event, state);
+        if(next == state) return 0;
+
+        Cache caches[] = {cpu.getL1i(), cpu.getL1d(), cpu.getL2()};
+        for(Cache cache : caches) {
+            int index = cache.probe(address);
+            if(index != -1) cache.setState(index, next);
         }
-        if(index1d != -1) {
-            time += otherCPU.getL1d().getLatency();
-            otherCPU.getL1d().setState(index1d, CacheLine.MESI.Invalid);
-            stateChanges[2][3]++;   // MESI Change: Shared -> Invalid
+        countTransition(state, next);
+        if(next == CacheLine.State.Invalid && !warming && executing != null
+                && executing.getProfiler() != null) {
+            executing.getProfiler().invalidated();
         }
-        if(index2 != -1) {
-            time += otherCPU.getL2().getLatency();
-            otherCPU.getL2().setState(index2, CacheLine.MESI.Invalid);
-            stateChanges[2][3]++;   // MESI Change: Shared -> Invalid
+
+        // A block that becomes shared is also placed into L3.
+        if(event == CoherenceProtocol.Event.SNOOP_READ) {
+            if(debug) debuggingOutput.println("L3: ");
+            fillL3(address, CacheLine.State.Shared);
         }
 
-        return time;
+        if(!protocol.writesBack(event, state)) return 0;
+
+        coherenceWritebacks.increment();
+        if(write == WriteScheme.WRITETHROUGH) {
+            return memWrite(address);
+        }
+        return writeToShared(address);
     }
 
     private int memWrite(long address) {
@@ -0,0 +1,40 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A pull-based source of trace records. Records are copied into an Instruction supplied by the caller, so a source
+ * never has to allocate or hold on to more than the record it is currently parsing.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public interface TraceSource extends Closeable {
+    /**
+     * Reads the next record of the trace into the passed Instruction, overwriting all of its fields.
+     *
+     * @param instruction The Instruction to fill in.
+     * @return True if a record was read, false if the end of the trace was reached.
+     * @throws IOException If the underlying trace could not be read.
+     */
+    boolean next(Instruction instruction) throws IOException;
+
+    /**
+     * Skips records without returning them, e.g. to resume a replay from a checkpoint. Sources that can seek should
+     * override this; the default reads and discards the records.
+     *
+     * @param count The number of records to skip.
+     * @return The number of records skipped, fewer than count if the end of the trace was reached.
+     * @throws IOException If the underlying trace could not be read.
+     */
+    default long skip(long count) throws IOException {
+        Instruction instruction = new Instruction();
+        long skipped = 0;
+        while(skipped < count && next(instruction)) {
+            skipped++;
+        }
+
+        return skipped;
+    }
+}
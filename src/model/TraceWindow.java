@@ -0,0 +1,79 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * A bounded look-back window over a TraceSource.
+ * Only the newest (depth + 1) records are kept, so memory use does not depend on the length of the trace.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class TraceWindow {
+    private TraceSource source;
+    private Instruction ring[];
+
+    private long position = 0;  // Number of records read from the source so far.
+
+    /**
+     * @param source The trace to read from.
+     * @param depth How many records behind the newest one can still be looked up.
+     */
+    public TraceWindow(TraceSource source, int depth) {
+        ring = new Instruction[depth + 1];
+        for(int i = 0; i < ring.length; i++) {
+            ring[i] = new Instruction();
+        }
+
+        this.source = source;
+    }
+
+    /**
+     * Reads the next record from the source into the window, dropping the oldest one.
+     *
+     * @return True if a record was read, false if the end of the trace was reached.
+     * @throws IOException If the source could not be read.
+     */
+    public boolean advance() throws IOException {
+        if(!source.next(ring[(int)(position % ring.length)])) {
+            return false;
+        }
+
+        position++;
+        return true;
+    }
+
+    /**
+     * Skips records of the source without keeping them. Records skipped this way can not be looked up.
+     *
+     * @param count The number of records to skip.
+     * @return True if the source has records left, false if the end of the trace was reached.
+     * @throws IOException If the source could not be read.
+     */
+    public boolean skip(long count) throws IOException {
+        long skipped = source.skip(count);
+        position += skipped;
+        return skipped == count;
+    }
+
+    /**
+     * @return The number of records read so far. The newest record in the window is at (position - 1).
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the record at the passed position of the trace.
+     *
+     * @param record Position of the record, counting from 0. Must be within the window.
+     * @return The Instruction at that position.
+     */
+    public Instruction get(long record) {
+        if(record >= position || record < position - ring.length || record < 0) {
+            throw new IndexOutOfBoundsException("Record " + record + " is outside of the trace window.");
+        }
+
+        return ring[(int)(record % ring.length)];
+    }
+}
@@ -0,0 +1,73 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * Tree pseudo-LRU. Each set keeps a binary tree of (ways - 1) bits packed into a long, where every bit points
+ * towards the half of its subtree that was used less recently. The victim is found by following the bits from
+ * the root down to a leaf.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class TreePlruReplacement implements ReplacementPolicy {
+    private int levels;
+    private long trees[];
+
+    public TreePlruReplacement(int sets, int ways) {
+        if(!AddressDecoder.isPowerOfTwo(ways) || ways > 64) {
+            throw new IllegalArgumentException("Tree-PLRU needs a power of two associativity of at most 64, but was "
+                    + ways + ".");
+        }
+
+        levels = Integer.numberOfTrailingZeros(ways);
+        trees = new long[sets];
+    }
+
+    @Override
+    public void touch(int set, int way) {
+        long tree = trees[set];
+        int node = 0;
+        for(int level = levels - 1; level >= 0; level--) {
+            int direction = (way >>> level) & 1;
+            // Point the node at the other half of the tree.
+            if(direction == 0) {
+                tree |= 1L << node;
+            } else {
+                tree &= ~(1L << node);
+            }
+            node = 2 * node + 1 + direction;
+        }
+        trees[set] = tree;
+    }
+
+    @Override
+    public void fill(int set, int way) {
+        touch(set, way);
+    }
+
+    @Override
+    public int victim(int set) {
+        long tree = trees[set];
+        int node = 0;
+        int way = 0;
+        for(int level = 0; level < levels; level++) {
+            int direction = (int)((tree >>> node) & 1);
+            way = (way << 1) | direction;
+            node = 2 * node + 1 + direction;
+        }
+        return way;
+    }
+
+    @Override
+    public void save(CheckpointWriter output) throws IOException {
+        output.section("PLRU");
+        output.putLongs(trees);
+    }
+
+    @Override
+    public void restore(CheckpointReader input) throws IOException {
+        input.section("PLRU");
+        input.getLongs(trees);
+    }
+}
@@ -0,0 +1,170 @@
+package model;
+
+import java.io.IOException;
+
+/**
+ * A buffer of dirty blocks on their way from the caches to memory. Writebacks are queued instead of making the
+ * evicting access wait for memory, and drain to memory one at a time in the background. A writeback of a block that
+ * is still waiting in the buffer is merged into its entry, saving a memory write. The evicting access only waits
+ * when the buffer is full, until the oldest entry has drained.
+ *
+ * Times are simulated nanoseconds. Requests can come from CPUs whose clocks differ, so the buffer never lets its
+ * time go backwards; a full buffer stalls a writeback by how long the inserting CPU must wait for the oldest entry.
+ * With the timing model, each drain reserves the memory channel when it is queued, so drains and demand misses
+ * compete for memory.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class WriteBuffer {
+    private long blocks[];
+    private long drained[];     // When each entry finishes draining.
+    private int head = 0;       // The oldest entry.
+    private int count = 0;
+
+    private int drainTime;
+    private Resource channel;   // Null if memory isn't timed.
+    private int occupancy;      // How long a drain holds the channel.
+    private long lastDrain = 0; // When memory finishes the last queued write.
+    private long time = 0;
+
+    private long writes = 0;
+    private long coalesced = 0;
+    private long stalls = 0;
+    private long stallTime = 0;
+
+    /**
+     * @param entries How many blocks the buffer holds.
+     * @param drainTime How long memory takes to write one block.
+     * @param channel The memory channel drains reserve, or null if memory isn't timed.
+     * @param occupancy How long a drain holds the channel.
+     */
+    public WriteBuffer(int entries, int drainTime, Resource channel, int occupancy) {
+        blocks = new long[entries];
+        drained = new long[entries];
+        this.drainTime = drainTime;
+        this.channel = channel;
+        this.occupancy = occupancy;
+    }
+
+    /**
+     * Merges a writeback into the entry for the same block, if it is still waiting.
+     *
+     * @param block The block written back.
+     * @param now The current time.
+     * @return True if the block was already in the buffer, so no new memory write is needed.
+     */
+    public boolean coalesce(long block, long now) {
+        retire(now);
+        for(int i = 0; i < count; i++) {
+            if(blocks[(head + i) % blocks.length] == block) {
+                coalesced++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Queues a writeback of a block that isn't in the buffer.
+     *
+     * @param now The clock of the CPU doing the writeback.
+     * @return How long the writeback had to wait for room in the buffer.
+     */
+    public long insert(long block, long now) {
+        retire(now);
+
+        long stall = 0;
+        if(count == blocks.length) {
+            stall = Math.max(0, drained[head] - now);
+            stalls++;
+            stallTime += stall;
+            retire(drained[head]);
+        }
+
+        // Entries drain in order, each once the one before it is done and memory is free.
+        long start = Math.max(now + stall, lastDrain);
+        if(channel != null) {
+            start = channel.reserve(start, occupancy);
+        }
+        lastDrain = start + drainTime;
+        int tail = (head + count) % blocks.length;
+        blocks[tail] = block;
+        drained[tail] = lastDrain;
+        count++;
+        writes++;
+        return stall;
+    }
+
+    /**
+     * Removes the entries that have finished draining by the passed time.
+     */
+    private void retire(long now) {
+        time = Math.max(time, now);
+        while(count > 0 && drained[head] <= time) {
+            head = (head + 1) % blocks.length;
+            count--;
+        }
+    }
+
+    /**
+     * @return How many writebacks were queued, each of which is one memory write.
+     */
+    public long getWrites() {
+        return writes;
+    }
+
+    /**
+     * @return How many writebacks were merged into a waiting entry.
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * @return How many writebacks found the buffer full.
+     */
+    public long getStalls() {
+        return stalls;
+    }
+
+    public long getStallTime() {
+        return stallTime;
+    }
+
+    /**
+     * Writes the queued blocks, the buffer's clock and its counters to a checkpoint.
+     */
+    void save(CheckpointWriter output) throws IOException {
+        output.section("Write Buffer");
+        output.putLongs(blocks);
+        output.putLongs(drained);
+        output.putInt(head);
+        output.putInt(count);
+        output.putLong(lastDrain);
+        output.putLong(time);
+        output.putLong(writes);
+        output.putLong(coalesced);
+        output.putLong(stalls);
+        output.putLong(stallTime);
+    }
+
+    /**
+     * Replaces the buffer's state with that of a checkpoint written by save.
+     *
+     * @throws IllegalArgumentException If the checkpoint is of a buffer with a different number of entries.
+     */
+    void restore(CheckpointReader input) throws IOException {
+        input.section("Write Buffer");
+        input.getLongs(blocks);
+        input.getLongs(drained);
+        head = input.getInt();
+        count = input.getInt();
+        lastDrain = input.getLong();
+        time = input.getLong();
+        writes = input.getLong();
+        coalesced = input.getLong();
+        stalls = input.getLong();
+        stallTime = input.getLong();
+    }
+}
@@ -0,0 +1,97 @@
+package trace;
+
+import model.Instruction;
+import model.TraceSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed-width binary trace format.
+ *
+ * Header (little-endian): magic, version, block size and CPU count as ints, then the record count as a long.
+ * Each record is the instruction address (long), an action byte (0 = none, 1 = read, 2 = write) and the data
+ * address (long).
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class BinaryTrace {
+    public static final int MAGIC = 0x43545243;  // "CTRC"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+    public static final int RECORD_SIZE = 17;
+
+    public static final byte ACTION_NONE = 0;
+    public static final byte ACTION_READ = 1;
+    public static final byte ACTION_WRITE = 2;
+
+    private BinaryTrace() {
+    }
+
+    /**
+     * Copies every record of the passed source into a binary trace file.
+     *
+     * @param source The trace to convert.
+     * @param file The file to write to. It is overwritten if it exists.
+     * @param blockSize The block size the trace is meant to be replayed with.
+     * @param cpuCount The number of CPUs the trace is meant to be replayed with.
+     * @return The number of records written.
+     * @throws IOException If either trace could not be read or written.
+     */
+    public static long convert(TraceSource source, File file, int blockSize, int cpuCount) throws IOException {
+        try(RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * 4096).order(ByteOrder.LITTLE_ENDIAN);
+
+            // The record count is patched in once the whole trace has been written.
+            writeHeader(buffer, blockSize, cpuCount, 0);
+
+            Instruction instruction = new Instruction();
+            long records = 0;
+            while(source.next(instruction)) {
+                if(buffer.remaining() < RECORD_SIZE) {
+                    flush(buffer, channel);
+                }
+                buffer.putLong(instruction.instruction);
+                if(instruction.memoryAction == Instruction.MemoryAction.READ) {
+                    buffer.put(ACTION_READ);
+                } else if(instruction.memoryAction == Instruction.MemoryAction.WRITE) {
+                    buffer.put(ACTION_WRITE);
+                } else {
+                    buffer.put(ACTION_NONE);
+                }
+                buffer.putLong(instruction.data);
+                records++;
+            }
+            flush(buffer, channel);
+
+            writeHeader(buffer, blockSize, cpuCount, records);
+            buffer.flip();
+            channel.write(buffer, 0);
+            return records;
+        }
+    }
+
+    private static void writeHeader(ByteBuffer buffer, int blockSize, int cpuCount, long records) {
+        buffer.clear();
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(blockSize);
+        buffer.putInt(cpuCount);
+        buffer.putLong(records);
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,86 @@
+package trace;
+
+import model.Instruction;
+import model.TraceSource;
+
+import java.io.*;
+
+/**
+ * Streams a CSV memory trace one record at a time.
+ * Each line has the form "instruction,action,data", where action is 0 for a read, 1 for a write,
+ * or empty if the instruction doesn't access memory.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class CsvTraceReader implements TraceSource {
+    private BufferedReader reader;
+
+    public CsvTraceReader(File file) throws IOException {
+        this(new BufferedReader(new FileReader(file), 1 << 16));
+    }
+
+    public CsvTraceReader(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public boolean next(Instruction instruction) throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if(line == null) return false;
+        } while(line.isEmpty());
+
+        int firstComma = line.indexOf(',');
+        if(firstComma == -1) {
+            firstComma = line.length();
+        }
+        int secondComma = line.indexOf(',', firstComma + 1);
+        if(secondComma == -1) {
+            secondComma = line.length();
+        }
+
+        instruction.instruction = parseLong(line, 0, firstComma);
+        instruction.memoryAction = null;
+        instruction.data = 0;
+
+        if(firstComma + 2 == secondComma) {
+            char action = line.charAt(firstComma + 1);
+            if(action == '0') {
+                instruction.memoryAction = Instruction.MemoryAction.READ;
+            } else if(action == '1') {
+                instruction.memoryAction = Instruction.MemoryAction.WRITE;
+            }
+        }
+        if(secondComma + 1 < line.length()) {
+            instruction.data = parseLong(line, secondComma + 1, line.length());
+        }
+
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    /**
+     * Parses a decimal number out of part of a line without creating a substring.
+     */
+    private static long parseLong(String line, int start, int end) {
+        if(start >= end) {
+            throw new NumberFormatException("Empty number in trace line: " + line);
+        }
+
+        long value = 0;
+        for(int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if(c < '0' || c > '9') {
+                throw new NumberFormatException("Invalid number in trace line: " + line);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,112 @@
+package trace;
+
+import model.Instruction;
+import model.TraceSource;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A trace decoded once into primitive arrays, which any number of simulations can then replay at the same time.
+ * The arrays are never modified after loading, and every replay gets its own cursor.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class DecodedTrace {
+    private long instructions[];
+    private byte actions[];
+    private long data[];
+    private int size;
+
+    private DecodedTrace(int capacity) {
+        instructions = new long[capacity];
+        actions = new byte[capacity];
+        data = new long[capacity];
+    }
+
+    /**
+     * Reads every record of a source into memory.
+     *
+     * @param source The trace to decode. It is read to the end but not closed.
+     * @return The decoded trace.
+     * @throws IOException If the source could not be read or has more than Integer.MAX_VALUE records.
+     */
+    public static DecodedTrace load(TraceSource source) throws IOException {
+        DecodedTrace trace = new DecodedTrace(1 << 16);
+        Instruction instruction = new Instruction();
+
+        while(source.next(instruction)) {
+            if(trace.size == trace.instructions.length) {
+                if(trace.size == Integer.MAX_VALUE - 8) {
+                    throw new IOException("Trace is too long to decode into memory.");
+                }
+                int capacity = (int)Math.min(Integer.MAX_VALUE - 8, trace.size * 2L);
+                trace.instructions = Arrays.copyOf(trace.instructions, capacity);
+                trace.actions = Arrays.copyOf(trace.actions, capacity);
+                trace.data = Arrays.copyOf(trace.data, capacity);
+            }
+
+            trace.instructions[trace.size] = instruction.instruction;
+            if(instruction.memoryAction == Instruction.MemoryAction.READ) {
+                trace.actions[trace.size] = BinaryTrace.ACTION_READ;
+            } else if(instruction.memoryAction == Instruction.MemoryAction.WRITE) {
+                trace.actions[trace.size] = BinaryTrace.ACTION_WRITE;
+            }
+            trace.data[trace.size] = instruction.data;
+            trace.size++;
+        }
+
+        return trace;
+    }
+
+    /**
+     * @return The number of records in the trace.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return A new source that replays the trace from the beginning.
+     */
+    public TraceSource cursor() {
+        return new Cursor();
+    }
+
+    private class Cursor implements TraceSource {
+        private int position = 0;
+
+        @Override
+        public boolean next(Instruction instruction) {
+            if(position == size) {
+                return false;
+            }
+
+            instruction.instruction = instructions[position];
+            byte action = actions[position];
+            if(action == BinaryTrace.ACTION_READ) {
+                instruction.memoryAction = Instruction.MemoryAction.READ;
+            } else if(action == BinaryTrace.ACTION_WRITE) {
+                instruction.memoryAction = Instruction.MemoryAction.WRITE;
+            } else {
+                instruction.memoryAction = null;
+            }
+            instruction.data = data[position];
+
+            position++;
+            return true;
+        }
+
+        @Override
+        public long skip(long count) {
+            long skipped = Math.min(count, size - position);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
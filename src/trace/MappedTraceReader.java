@@ -0,0 +1,136 @@
+package trace;
+
+import model.Instruction;
+import model.TraceSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays a BinaryTrace file straight out of memory-mapped buffers.
+ * Files larger than 2 GB are mapped one segment at a time.
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class MappedTraceReader implements TraceSource {
+    private static final long SEGMENT_RECORDS = Integer.MAX_VALUE / BinaryTrace.RECORD_SIZE;
+
+    private RandomAccessFile file;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+
+    private long records;
+    private long position = 0;
+    private long segmentEnd = 0;    // Record number one past the end of the mapped segment.
+
+    /**
+     * Opens a binary trace and checks that it was recorded for the passed configuration.
+     *
+     * @param path The binary trace file.
+     * @param blockSize The block size of the simulated system.
+     * @param cpuCount The number of CPUs in the simulated system.
+     * @throws IOException If the file can't be read, isn't a binary trace, or was recorded for another configuration.
+     */
+    public MappedTraceReader(File path, int blockSize, int cpuCount) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        channel = file.getChannel();
+
+        try {
+            if(channel.size() < BinaryTrace.HEADER_SIZE) {
+                throw new IOException(path + " is too short to be a binary trace.");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BinaryTrace.HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+
+            if(header.getInt() != BinaryTrace.MAGIC) {
+                throw new IOException(path + " is not a binary trace.");
+            }
+            int version = header.getInt();
+            if(version != BinaryTrace.VERSION) {
+                throw new IOException(path + " has unsupported version " + version + ".");
+            }
+            int traceBlockSize = header.getInt();
+            if(traceBlockSize != blockSize) {
+                throw new IOException(path + " was recorded with block size " + traceBlockSize
+                        + ", but block_size is " + blockSize + ".");
+            }
+            int traceCpuCount = header.getInt();
+            if(traceCpuCount != cpuCount) {
+                throw new IOException(path + " was recorded for " + traceCpuCount
+                        + " CPUs, but the system has " + cpuCount + ".");
+            }
+            records = header.getLong();
+
+            if(channel.size() < BinaryTrace.HEADER_SIZE + records * BinaryTrace.RECORD_SIZE) {
+                throw new IOException(path + " is truncated.");
+            }
+        } catch(IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The number of records in the trace.
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    @Override
+    public boolean next(Instruction instruction) throws IOException {
+        if(position == records) {
+            return false;
+        }
+        if(position == segmentEnd) {
+            mapSegment();
+        }
+
+        instruction.instruction = segment.getLong();
+        byte action = segment.get();
+        if(action == BinaryTrace.ACTION_READ) {
+            instruction.memoryAction = Instruction.MemoryAction.READ;
+        } else if(action == BinaryTrace.ACTION_WRITE) {
+            instruction.memoryAction = Instruction.MemoryAction.WRITE;
+        } else {
+            instruction.memoryAction = null;
+        }
+        instruction.data = segment.getLong();
+
+        position++;
+        return true;
+    }
+
+    /**
+     * Seeks past records without reading them. The segment holding the new position is mapped by the next read.
+     */
+    @Override
+    public long skip(long count) {
+        long skipped = Math.min(count, records - position);
+        if(skipped > 0) {
+            position += skipped;
+            segmentEnd = position;
+        }
+
+        return skipped;
+    }
+
+    private void mapSegment() throws IOException {
+        long count = Math.min(SEGMENT_RECORDS, records - position);
+        segment = channel.map(FileChannel.MapMode.READ_ONLY,
+                BinaryTrace.HEADER_SIZE + position * BinaryTrace.RECORD_SIZE, count * BinaryTrace.RECORD_SIZE);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        segmentEnd = position + count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segment = null;
+        file.close();
+    }
+}
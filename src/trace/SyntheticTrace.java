@@ -0,0 +1,248 @@
+package trace;
+
+import model.AddressDecoder;
+import model.Instruction;
+import model.RandomStream;
+import model.TraceSource;
+
+import java.util.Map;
+
+/**
+ * Generates a memory trace from a workload model instead of reading it from a file, so traces can be as long as
+ * needed (billions of records) without any storage. The same configuration always generates the same trace.
+ *
+ * Instructions run in a loop over synthetic_code_size instructions. synthetic_memory_percent of them access data in
+ * a footprint of synthetic_footprint bytes (a power of two), and synthetic_write_percent of those accesses are
+ * writes. The model decides which address each access goes to:
+ * <ul>
+ *     <li>sequential - consecutive 8 byte words, wrapping around at the end of the footprint.</li>
+ *     <li>strided - every synthetic_stride bytes, wrapping around at the end of the footprint.</li>
+ *     <li>random - uniformly random blocks.</li>
+ *     <li>zipf - blocks chosen with a Zipfian distribution of skew synthetic_zipf_percent / 100, so a few hot
+ *     blocks get most of the accesses. The hot blocks are scattered over the footprint.</li>
+ *     <li>pointer-chase - follows a linked list that visits every block of the footprint in a scrambled order, so
+ *     consecutive accesses have no locality.</li>
+ *     <li>producer-consumer - even records write the next slot of a ring buffer and odd records read the slot
+ *     that is written synthetic_distance records later. Since each CPU replays the trace some lag behind the one
+ *     before it, every CPU reads the slots that the CPU ahead of it has just written. The distance has to be
+ *     smaller than that lag.</li>
+ * </ul>
+ *
+ * @author Alex Glass, Vitaliy Radchishin, Andy Tran, Tru Truong
+ * @version 1.0
+ */
+public class SyntheticTrace implements TraceSource {
+    /**
+     * Trace names starting with this are generated, in the form "synthetic:model[:records]".
+     */
+    public static final String PREFIX = "synthetic:";
+
+    private static final long CODE_BASE = 0x1000;
+    private static final long DATA_BASE = 0x1000000;  // Past LM1, so data comes from LM2 like in the bundled traces.
+    private static final int WORD_SIZE = 8;
+
+    private Model model;
+    private long records;
+    private long position = 0;
+
+    private RandomStream random;
+    private int codeSize;
+    private int memoryPercent;
+    private int writePercent;
+
+    private long footprint;
+    private int blockSize;
+    private long blocks;
+    private long stride;
+    private int distance;
+
+    private long cursor = 0;        // Byte offset of sequential and strided scans, node of the pointer chase.
+    private int blockBits;
+
+    // Zipfian distribution over the blocks (Gray et al., "Quickly Generating Billion-Record Synthetic Databases").
+    private double theta;
+    private double zetan;
+    private double alpha;
+    private double eta;
+
+    /**
+     * The workload models a synthetic trace can follow.
+     */
+    public enum Model {
+        SEQUENTIAL, STRIDED, RANDOM, ZIPF, POINTER_CHASE, PRODUCER_CONSUMER;
+
+        /**
+         * Looks up a model by name, ignoring case and treating '-' like '_'.
+         *
+         * @throws IllegalArgumentException If the name isn't a known model.
+         */
+        public static Model parse(String name) {
+            String normalized = name.trim().toUpperCase().replace('-', '_');
+            for(Model model : values()) {
+                if(model.name().equals(normalized)) {
+                    return model;
+                }
+            }
+            throw new IllegalArgumentException("Unknown synthetic workload \"" + name + "\".");
+        }
+    }
+
+    /**
+     * Creates a generator from a trace name of the form "synthetic:model[:records]". If the number of records is
+     * left out, synthetic_records from the configuration is used.
+     *
+     * @throws IllegalArgumentException If the name or the configuration is invalid.
+     */
+    public static SyntheticTrace open(String name, Map<String, Integer> config) {
+        String parts[] = name.substring(PREFIX.length()).split(":");
+        if(parts.length > 2) {
+            throw new IllegalArgumentException("Synthetic traces are named synthetic:model[:records], not " + name);
+        }
+
+        long records = config.getOrDefault("synthetic_records", 1000000);
+        if(parts.length == 2) {
+            records = Long.parseLong(parts[1].replace("_", ""));
+        }
+        return new SyntheticTrace(Model.parse(parts[0]), records, config);
+    }
+
+    /**
+     * @param model The workload to generate.
+     * @param records The number of records to generate.
+     * @param config The simulator configuration, for block_size, seed and the synthetic_* parameters.
+     * @throws IllegalArgumentException If a parameter is out of range.
+     */
+    public SyntheticTrace(Model model, long records, Map<String, Integer> config) {
+        this.model = model;
+        this.records = records;
+
+        random = new RandomStream(config.getOrDefault("seed", 0)).split();
+        codeSize = config.getOrDefault("synthetic_code_size", 256);
+        memoryPercent = config.getOrDefault("synthetic_memory_percent", 100);
+        writePercent = config.getOrDefault("synthetic_write_percent", 30);
+        footprint = config.getOrDefault("synthetic_footprint", 1 << 22);
+        blockSize = config.get("block_size");
+        stride = config.getOrDefault("synthetic_stride", blockSize);
+        distance = config.getOrDefault("synthetic_distance", 24);
+
+        if(records < 0) {
+            throw new IllegalArgumentException("synthetic trace length must not be negative.");
+        }
+        if(codeSize < 1) {
+            throw new IllegalArgumentException("synthetic_code_size must be at least 1.");
+        }
+        if(memoryPercent < 0 || memoryPercent > 100 || writePercent < 0 || writePercent > 100) {
+            throw new IllegalArgumentException("synthetic_memory_percent and synthetic_write_percent must be "
+                    + "between 0 and 100.");
+        }
+        if(!AddressDecoder.isPowerOfTwo(footprint) || footprint < blockSize) {
+            throw new IllegalArgumentException("synthetic_footprint must be a power of two of at least one block.");
+        }
+        if(stride < 1) {
+            throw new IllegalArgumentException("synthetic_stride must be at least 1.");
+        }
+        if(distance < 2 || distance % 2 != 0) {
+            throw new IllegalArgumentException("synthetic_distance must be a positive even number.");
+        }
+
+        blocks = footprint / blockSize;
+        blockBits = Long.numberOfTrailingZeros(blocks);
+
+        if(model == Model.ZIPF) {
+            int skew = config.getOrDefault("synthetic_zipf_percent", 99);
+            if(skew < 1 || skew > 99) {
+                throw new IllegalArgumentException("synthetic_zipf_percent must be between 1 and 99.");
+            }
+            theta = skew / 100.0;
+            zetan = zeta(blocks, theta);
+            alpha = 1 / (1 - theta);
+            eta = (1 - Math.pow(2.0 / blocks, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+        }
+    }
+
+    @Override
+    public boolean next(Instruction instruction) {
+        if(position == records) {
+            return false;
+        }
+
+        instruction.instruction = CODE_BASE + (position % codeSize) * 4;
+        instruction.memoryAction = null;
+        instruction.data = 0;
+
+        if(memoryPercent == 100 || random.nextInt(100) < memoryPercent) {
+            boolean write = random.nextInt(100) < writePercent;
+            long offset;
+
+            switch(model) {
+                case SEQUENTIAL:
+                    offset = cursor;
+                    cursor = (cursor + WORD_SIZE) & (footprint - 1);
+                    break;
+                case STRIDED:
+                    offset = cursor;
+                    cursor = (cursor + stride) & (footprint - 1);
+                    break;
+                case RANDOM:
+                    offset = (random.nextLong() & (blocks - 1)) * blockSize;
+                    break;
+                case ZIPF:
+                    offset = scramble(zipf()) * blockSize;
+                    break;
+                case POINTER_CHASE:
+                    // A full-period LCG modulo the number of blocks visits every block once per lap.
+                    cursor = (cursor * 0x5851F42D4C957F2DL + 0x14057B7EF767814FL) & (blocks - 1);
+                    offset = scramble(cursor) * blockSize;
+                    write = false;
+                    break;
+                default:
+                    write = position % 2 == 0;
+                    long slot = write ? position / 2 : (position - 1 + distance) / 2;
+                    offset = (slot & (blocks - 1)) * blockSize;
+                    break;
+            }
+
+            instruction.memoryAction = write ? Instruction.MemoryAction.WRITE : Instruction.MemoryAction.READ;
+            instruction.data = DATA_BASE + offset;
+        }
+
+        position++;
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @return A block number from 0 to blocks - 1, where lower numbers are exponentially more likely.
+     */
+    private long zipf() {
+        double u = random.nextDouble();
+        double uz = u * zetan;
+        if(uz < 1) {
+            return 0;
+        }
+        if(uz < 1 + Math.pow(0.5, theta)) {
+            return 1;
+        }
+        return Math.min(blocks - 1, (long)(blocks * Math.pow(eta * u - eta + 1, alpha)));
+    }
+
+    /**
+     * Maps the block numbers onto themselves in a scrambled order, so neighbouring numbers land in unrelated sets.
+     */
+    private long scramble(long block) {
+        long mask = blocks - 1;
+        block = (block * 0x9E3779B97F4A7C15L) & mask;
+        return block ^ (block >>> (blockBits + 1) / 2);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for(long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}